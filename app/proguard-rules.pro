@@ -10,6 +10,7 @@
 -keep class com.commonsware.cwac.wakeful.AlarmReceiver
 -keep class fr.kwiatkowski.apktrack.model.InstalledApp
 -keep class fr.kwiatkowski.apktrack.model.AppIcon
+-keep class fr.kwiatkowski.apktrack.model.*_Mapper
 -keep public class android.support.v7.widget.** { *; }
 -keep public class * extends android.support.v7.preference.Preference
 -keepclassmembers class ** {
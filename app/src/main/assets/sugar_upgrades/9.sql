@@ -0,0 +1 @@
+ALTER TABLE INSTALLED_APP ADD COLUMN _NEXTCHECKDATE INTEGER;
@@ -0,0 +1,45 @@
+package com.orm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Saves and loads the columns of an entity without reflection. Implementations are generated
+ * at compile time for the classes annotated with {@link com.orm.dsl.GenerateMapper}; the other
+ * entities keep going through {@link com.orm.util.ReflectionUtil}.
+ */
+public interface EntityMapper<T> {
+
+    String getTableName();
+
+    /**
+     * @return The columns read by {@link #inflate(Cursor, int[], Object)}, in the order of the
+     *         indices it receives, starting with the id. The array must not be modified.
+     */
+    String[] getColumnNames();
+
+    T newInstance();
+
+    /**
+     * @return The id of the object, or null if it has never been saved.
+     */
+    Long getId(T object);
+
+    /**
+     * Binds the value of every column of the object but the id to the statement. The argument
+     * index of each column is its position in {@link #getColumnNames()}. The bindings of the
+     * statement have been cleared beforehand, so NULL values don't need to be bound.
+     */
+    void bind(T object, SQLiteStatement statement);
+
+    /**
+     * Reads the current row of the cursor into the object. Columns which are NULL or absent
+     * from the cursor leave the corresponding fields untouched.
+     *
+     * @param columns  the index in the cursor of each column of {@link #getColumnNames()}, or
+     *                 -1 if the cursor doesn't contain it
+     */
+    void inflate(Cursor cursor, int[] columns, T object);
+
+    void setId(T object, long id);
+}
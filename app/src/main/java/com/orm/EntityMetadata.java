@@ -0,0 +1,466 @@
+package com.orm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.orm.dsl.Table;
+import com.orm.util.NamingHelper;
+import com.orm.util.ReflectionUtil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Everything SugarRecord needs to know in order to save and load an entity, computed once per
+ * class: the table and column names, the type of each column, the way to access the values
+ * (the generated {@link EntityMapper} if there is one, the fields otherwise) and the SQL of the
+ * statements saving them, which {@link SugarDb} compiles once.
+ *
+ * Instances are immutable and shared between threads. The column indices of a cursor are
+ * resolved once with {@link #resolveColumns(Cursor)} and reused for all its rows.
+ */
+final class EntityMetadata<T> {
+
+    private static final String MAPPER_SUFFIX = "_Mapper";
+    private static final String ID = "ID";
+
+    // Type codes of the columns handled through reflection.
+    static final int TYPE_OTHER = 0;
+    static final int TYPE_SHORT = 1;
+    static final int TYPE_INT = 2;
+    static final int TYPE_LONG = 3;
+    static final int TYPE_FLOAT = 4;
+    static final int TYPE_DOUBLE = 5;
+    static final int TYPE_BOOLEAN = 6;
+    static final int TYPE_STRING = 7;
+    static final int TYPE_BIG_DECIMAL = 8;
+    static final int TYPE_TIMESTAMP = 9;
+    static final int TYPE_DATE = 10;
+    static final int TYPE_CALENDAR = 11;
+    static final int TYPE_BLOB = 12;
+    static final int TYPE_ENUM = 13;
+    static final int TYPE_TABLE_REFERENCE = 14;
+    static final int TYPE_RECORD_REFERENCE = 15;
+
+    private static final ConcurrentMap<Class<?>, EntityMetadata<?>> cache =
+            new ConcurrentHashMap<Class<?>, EntityMetadata<?>>();
+
+    private final Class<T> type;
+    private final String tableName;
+    private final boolean annotatedTable;
+    private final EntityMapper<T> mapper;
+
+    // Reflection: the first column is always the id, even if the class has no id field.
+    private final String[] columnNames;
+    private final Field[] fields;
+    private final int[] types;
+    private final Constructor<T> constructor;
+
+    // The statements used to save the objects. In both of them, the argument index of each
+    // column is its position in columnNames, and the id comes last.
+    private final String insertSql;
+    private final String updateSql;
+
+    @SuppressWarnings("unchecked")
+    static <T> EntityMetadata<T> get(Class<T> type) {
+        EntityMetadata<?> metadata = cache.get(type);
+        if (metadata == null) {
+            metadata = new EntityMetadata<T>(type);
+            EntityMetadata<?> previous = cache.putIfAbsent(type, metadata);
+            if (previous != null) {
+                metadata = previous;
+            }
+        }
+        return (EntityMetadata<T>) metadata;
+    }
+
+    private EntityMetadata(Class<T> type) {
+        this.type = type;
+        this.annotatedTable = type.isAnnotationPresent(Table.class);
+        this.mapper = loadMapper(type);
+
+        if (mapper != null) {
+            tableName = mapper.getTableName();
+            columnNames = mapper.getColumnNames();
+            fields = null;
+            types = null;
+            constructor = null;
+        } else {
+            tableName = NamingHelper.toSQLName(type);
+            Field idField = null;
+            List<Field> columns = new ArrayList<Field>();
+            for (Field field : ReflectionUtil.getTableFields(type)) {
+                field.setAccessible(true);
+                if (field.getName().equals("id")) {
+                    idField = field;
+                } else {
+                    columns.add(field);
+                }
+            }
+            columns.add(0, idField);
+
+            columnNames = new String[columns.size()];
+            fields = columns.toArray(new Field[columns.size()]);
+            types = new int[columns.size()];
+            columnNames[0] = ID;
+            types[0] = TYPE_LONG;
+            for (int i = 1; i < fields.length; i++) {
+                columnNames[i] = NamingHelper.toSQLName(fields[i]);
+                types[i] = getTypeCode(fields[i].getType());
+            }
+
+            Constructor<T> c = null;
+            try {
+                c = type.getDeclaredConstructor();
+                c.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                Log.e(SugarRecord.SUGAR, type.getName() + " has no default constructor");
+            }
+            constructor = c;
+        }
+
+        insertSql = buildInsertSql(tableName, columnNames);
+        updateSql = buildUpdateSql(tableName, columnNames);
+    }
+
+    private static String buildInsertSql(String tableName, String[] columnNames) {
+        StringBuilder sb = new StringBuilder("INSERT OR REPLACE INTO ").append(tableName).append(" (");
+        for (int i = 1; i < columnNames.length; i++) {
+            sb.append(columnNames[i]).append(", ");
+        }
+        sb.append(ID).append(") VALUES (");
+        for (int i = 1; i < columnNames.length; i++) {
+            sb.append("?, ");
+        }
+        return sb.append("?)").toString();
+    }
+
+    /**
+     * @return The statement updating every column of a record, or null if the entity only has
+     *         an id.
+     */
+    private static String buildUpdateSql(String tableName, String[] columnNames) {
+        if (columnNames.length < 2) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("UPDATE OR REPLACE ").append(tableName).append(" SET ");
+        for (int i = 1; i < columnNames.length; i++) {
+            sb.append(i > 1 ? ", " : "").append(columnNames[i]).append(" = ?");
+        }
+        return sb.append(" WHERE ").append(ID).append(" = ?").toString();
+    }
+
+    private static <T> EntityMapper<T> loadMapper(Class<T> type) {
+        try {
+            Class<?> mapperClass = Class.forName(type.getName() + MAPPER_SUFFIX, true, type.getClassLoader());
+            if (EntityMapper.class.isAssignableFrom(mapperClass)) {
+                @SuppressWarnings("unchecked")
+                EntityMapper<T> mapper = (EntityMapper<T>) mapperClass.newInstance();
+                return mapper;
+            }
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (InstantiationException e) {
+            Log.e(SugarRecord.SUGAR, "Cannot instantiate the mapper of " + type.getName(), e);
+        } catch (IllegalAccessException e) {
+            Log.e(SugarRecord.SUGAR, "Cannot instantiate the mapper of " + type.getName(), e);
+        }
+        return null;
+    }
+
+    static int getTypeCode(Class<?> columnType) {
+        if (columnType.isAnnotationPresent(Table.class)) {
+            return TYPE_TABLE_REFERENCE;
+        } else if (SugarRecord.class.isAssignableFrom(columnType)) {
+            return TYPE_RECORD_REFERENCE;
+        } else if (columnType.equals(Short.class) || columnType.equals(short.class)) {
+            return TYPE_SHORT;
+        } else if (columnType.equals(Integer.class) || columnType.equals(int.class)) {
+            return TYPE_INT;
+        } else if (columnType.equals(Long.class) || columnType.equals(long.class)) {
+            return TYPE_LONG;
+        } else if (columnType.equals(Float.class) || columnType.equals(float.class)) {
+            return TYPE_FLOAT;
+        } else if (columnType.equals(Double.class) || columnType.equals(double.class)) {
+            return TYPE_DOUBLE;
+        } else if (columnType.equals(Boolean.class) || columnType.equals(boolean.class)) {
+            return TYPE_BOOLEAN;
+        } else if (columnType.equals(String.class)) {
+            return TYPE_STRING;
+        } else if (columnType.equals(BigDecimal.class)) {
+            return TYPE_BIG_DECIMAL;
+        } else if (Timestamp.class.equals(columnType)) {
+            return TYPE_TIMESTAMP;
+        } else if (Date.class.equals(columnType)) {
+            return TYPE_DATE;
+        } else if (Calendar.class.equals(columnType)) {
+            return TYPE_CALENDAR;
+        } else if (columnType.equals(byte[].class)) {
+            return TYPE_BLOB;
+        } else if (columnType.isEnum()) {
+            return TYPE_ENUM;
+        }
+        return TYPE_OTHER;
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    String getInsertSql() {
+        return insertSql;
+    }
+
+    String getUpdateSql() {
+        return updateSql;
+    }
+
+    /**
+     * @return The argument index of the id in the insert and update statements.
+     */
+    int getIdIndex() {
+        return columnNames.length;
+    }
+
+    /**
+     * @return The index of every column of the entity in the cursor, or -1 for the columns
+     *         which are not part of it.
+     */
+    int[] resolveColumns(Cursor cursor) {
+        int[] columns = new int[columnNames.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = cursor.getColumnIndex(columnNames[i]);
+        }
+        return columns;
+    }
+
+    T newInstance() throws Exception {
+        if (mapper != null) {
+            return mapper.newInstance();
+        }
+        if (constructor == null) {
+            throw new InstantiationException(type.getName() + " has no default constructor");
+        }
+        return constructor.newInstance();
+    }
+
+    /**
+     * Reads the current row of a cursor into an object.
+     *
+     * @param columns  the indices returned by {@link #resolveColumns(Cursor)} for this cursor
+     */
+    void inflate(Cursor cursor, int[] columns, T object, Map<Object, Long> entitiesMap) {
+        if (mapper != null) {
+            mapper.inflate(cursor, columns, object);
+            return;
+        }
+
+        if (columns[0] >= 0 && !entitiesMap.containsKey(object)) {
+            entitiesMap.put(object, cursor.getLong(columns[0]));
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null && columns[i] >= 0) {
+                readColumn(cursor, columns[i], fields[i], types[i], object);
+            }
+        }
+    }
+
+    /**
+     * @return The id of an object, or null if it has never been saved.
+     */
+    Long getId(T object, Map<Object, Long> entitiesMap) {
+        if (mapper != null) {
+            return mapper.getId(object);
+        }
+
+        Long id = null;
+        if (fields[0] != null) {
+            try {
+                id = (Long) fields[0].get(object);
+            } catch (IllegalAccessException e) {
+                Log.e(SugarRecord.SUGAR, e.getMessage());
+            }
+        }
+        if (id == null && SugarRecord.isSugarEntity(type)) {
+            id = entitiesMap.get(object);
+        }
+        return id;
+    }
+
+    /**
+     * Binds the value of every column of an object but the id to an insert or update statement
+     * whose bindings have been cleared.
+     */
+    void bind(T object, SQLiteStatement statement, Map<Object, Long> entitiesMap) {
+        if (mapper != null) {
+            mapper.bind(object, statement);
+            return;
+        }
+        for (int i = 1; i < fields.length; i++) {
+            bindColumn(statement, i, fields[i], types[i], object, entitiesMap);
+        }
+    }
+
+    /**
+     * Stores the id assigned to a newly inserted object.
+     */
+    void setId(T object, long id, Map<Object, Long> entitiesMap) {
+        if (mapper != null) {
+            mapper.setId(object, id);
+        } else if (annotatedTable) {
+            if (fields[0] != null) {
+                try {
+                    fields[0].set(object, id);
+                } catch (IllegalAccessException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                entitiesMap.put(object, id);
+            }
+        } else if (object instanceof SugarRecord) {
+            ((SugarRecord) object).setId(id);
+        }
+    }
+
+    private static void bindColumn(SQLiteStatement statement, int index, Field column, int columnType,
+                                   Object object, Map<Object, Long> entitiesMap) {
+        try {
+            Object columnValue = column.get(object);
+            if (columnValue == null && columnType != TYPE_RECORD_REFERENCE && columnType != TYPE_BLOB) {
+                return; // The bindings are NULL after being cleared.
+            }
+            switch (columnType) {
+                case TYPE_TABLE_REFERENCE:
+                    try {
+                        Field field = column.getType().getDeclaredField("id");
+                        field.setAccessible(true);
+                        statement.bindString(index, String.valueOf(field.get(columnValue)));
+                    } catch (NoSuchFieldException e) {
+                        if (entitiesMap.containsKey(columnValue)) {
+                            statement.bindLong(index, entitiesMap.get(columnValue));
+                        }
+                    }
+                    break;
+                case TYPE_RECORD_REFERENCE:
+                    statement.bindString(index,
+                            (columnValue != null)
+                                    ? String.valueOf(((SugarRecord) columnValue).getId())
+                                    : "0");
+                    break;
+                case TYPE_SHORT:
+                case TYPE_INT:
+                case TYPE_LONG:
+                    statement.bindLong(index, ((Number) columnValue).longValue());
+                    break;
+                case TYPE_FLOAT:
+                case TYPE_DOUBLE:
+                    statement.bindDouble(index, ((Number) columnValue).doubleValue());
+                    break;
+                case TYPE_BOOLEAN:
+                    statement.bindLong(index, (Boolean) columnValue ? 1 : 0);
+                    break;
+                case TYPE_TIMESTAMP:
+                case TYPE_DATE:
+                    statement.bindLong(index, ((Date) columnValue).getTime());
+                    break;
+                case TYPE_CALENDAR:
+                    statement.bindLong(index, ((Calendar) columnValue).getTimeInMillis());
+                    break;
+                case TYPE_BLOB:
+                    statement.bindBlob(index, columnValue == null ? new byte[0] : (byte[]) columnValue);
+                    break;
+                case TYPE_ENUM:
+                    statement.bindString(index, ((Enum) columnValue).name());
+                    break;
+                default: // Strings, BigDecimals and anything else are stored as text.
+                    statement.bindString(index, String.valueOf(columnValue));
+                    break;
+            }
+        } catch (IllegalAccessException e) {
+            Log.e(SugarRecord.SUGAR, e.getMessage());
+        }
+    }
+
+    private static void readColumn(Cursor cursor, int columnIndex, Field field, int fieldType, Object object) {
+        try {
+            if (fieldType == TYPE_TABLE_REFERENCE || fieldType == TYPE_RECORD_REFERENCE) {
+                long id = cursor.getLong(columnIndex);
+                field.set(object, (id > 0) ? SugarRecord.findById(field.getType(), id) : null);
+                return;
+            }
+            if (cursor.isNull(columnIndex)) {
+                return;
+            }
+
+            switch (fieldType) {
+                case TYPE_LONG:
+                    field.set(object, cursor.getLong(columnIndex));
+                    break;
+                case TYPE_STRING:
+                    String val = cursor.getString(columnIndex);
+                    field.set(object, val != null && val.equals("null") ? null : val);
+                    break;
+                case TYPE_DOUBLE:
+                    field.set(object, cursor.getDouble(columnIndex));
+                    break;
+                case TYPE_BOOLEAN:
+                    field.set(object, cursor.getString(columnIndex).equals("1"));
+                    break;
+                case TYPE_INT:
+                    field.set(object, cursor.getInt(columnIndex));
+                    break;
+                case TYPE_FLOAT:
+                    field.set(object, cursor.getFloat(columnIndex));
+                    break;
+                case TYPE_SHORT:
+                    field.set(object, cursor.getShort(columnIndex));
+                    break;
+                case TYPE_BIG_DECIMAL:
+                    String decimal = cursor.getString(columnIndex);
+                    field.set(object, decimal != null && decimal.equals("null") ? null : new BigDecimal(decimal));
+                    break;
+                case TYPE_TIMESTAMP:
+                    field.set(object, new Timestamp(cursor.getLong(columnIndex)));
+                    break;
+                case TYPE_DATE:
+                    field.set(object, new Date(cursor.getLong(columnIndex)));
+                    break;
+                case TYPE_CALENDAR:
+                    Calendar c = Calendar.getInstance();
+                    c.setTimeInMillis(cursor.getLong(columnIndex));
+                    field.set(object, c);
+                    break;
+                case TYPE_BLOB:
+                    byte[] bytes = cursor.getBlob(columnIndex);
+                    field.set(object, bytes == null ? new byte[0] : bytes);
+                    break;
+                case TYPE_ENUM:
+                    try {
+                        Method valueOf = field.getType().getMethod("valueOf", String.class);
+                        field.set(object, valueOf.invoke(field.getType(), cursor.getString(columnIndex)));
+                    } catch (Exception e) {
+                        Log.e(SugarRecord.SUGAR, "Enum cannot be read from Sqlite3 database. Please check the type of field " + field.getName());
+                    }
+                    break;
+                default:
+                    Log.e(SugarRecord.SUGAR, "Class cannot be read from Sqlite3 database. Please check the type of field " + field.getName() + "(" + field.getType().getName() + ")");
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e("field set error", e.getMessage());
+        } catch (IllegalAccessException e) {
+            Log.e("field set error", e.getMessage());
+        }
+    }
+}
@@ -45,11 +45,11 @@ public class SugarContext {
      */
     private void doTerminate() {
         if (this.sugarDb != null) {
-            this.sugarDb.getDB().close();
+            this.sugarDb.close();
         }
     }
 
-    protected SugarDb getSugarDb() {
+    public SugarDb getSugarDb() {
         return sugarDb;
     }
 
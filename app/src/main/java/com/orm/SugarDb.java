@@ -3,17 +3,28 @@ package com.orm;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 import com.orm.util.ManifestHelper;
 import com.orm.util.SugarCursorFactory;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import static com.orm.util.ManifestHelper.getDatabaseVersion;
 import static com.orm.util.ManifestHelper.getDebugEnabled;
 
+/**
+ * Gives access to the database, which uses write-ahead logging: writes are serialized on the
+ * primary connection, while queries issued by threads outside of a transaction run on the
+ * connection pool maintained by SQLiteDatabase. They don't wait for the writes in progress
+ * (they see the data as of the last commit).
+ */
 public class SugarDb extends SQLiteOpenHelper {
 
     private final SchemaGenerator schemaGenerator;
     private SQLiteDatabase sqLiteDatabase;
+    private final Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
 
     public SugarDb(Context context) {
         super(context, ManifestHelper.getDatabaseName(context),
@@ -31,6 +42,19 @@ public class SugarDb extends SQLiteOpenHelper {
         schemaGenerator.doUpgrade(sqLiteDatabase, oldVersion, newVersion);
     }
 
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+        // onConfigure() would be the right place, but it requires API 16.
+        if (!sqLiteDatabase.isReadOnly()) {
+            sqLiteDatabase.enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * @return the database. Queries may be run on it from any thread: with write-ahead logging,
+     * SQLiteDatabase dispatches them to its own pooled connections.
+     */
     public synchronized SQLiteDatabase getDB() {
         if (this.sqLiteDatabase == null) {
             this.sqLiteDatabase = getWritableDatabase();
@@ -39,4 +63,30 @@ public class SugarDb extends SQLiteOpenHelper {
         return this.sqLiteDatabase;
     }
 
+    /**
+     * Returns a statement compiled for the database, compiling it the first time it is
+     * requested. Statements are shared between threads: callers must hold the statement's
+     * lock from the moment they bind its arguments until it has been executed, and must be in
+     * a transaction before requesting the statement or taking its lock, so that all the
+     * threads acquire the database lock first.
+     */
+    public synchronized SQLiteStatement getStatement(String sql) {
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = getDB().compileStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (SQLiteStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+        this.sqLiteDatabase = null;
+        super.close();
+    }
+
 }
@@ -1,7 +1,7 @@
 package com.orm;
 
-import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteStatement;
@@ -10,7 +10,6 @@ import android.util.Log;
 
 import com.orm.dsl.Table;
 import com.orm.util.NamingHelper;
-import com.orm.util.ReflectionUtil;
 import com.orm.util.QueryBuilder;
 
 import java.lang.String;
@@ -30,6 +29,19 @@ public class SugarRecord {
     public static final String SUGAR = "Sugar";
     private Long id = null;
 
+    /**
+     * Notified of the duration of every save, i.e. to collect metrics.
+     */
+    public interface SaveObserver {
+        void onSaved(Class<?> type, long durationNanos);
+    }
+
+    private static volatile SaveObserver saveObserver = null;
+
+    public static void setSaveObserver(SaveObserver observer) {
+        saveObserver = observer;
+    }
+
     private static SQLiteDatabase getSugarDataBase() {
         return getSugarContext().getSugarDb().getDB();
     }
@@ -42,17 +54,14 @@ public class SugarRecord {
         return getSugarDataBase().delete(NamingHelper.toSQLName(type), whereClause, whereArgs);
     }
 
-    @SuppressWarnings("deprecation")
     public static <T> void saveInTx(T... objects) {
         saveInTx(Arrays.asList(objects));
     }
 
-    @SuppressWarnings("deprecation")
     public static <T> void saveInTx(Collection<T> objects) {
         SQLiteDatabase sqLiteDatabase = getSugarDataBase();
         try {
-            sqLiteDatabase.beginTransaction();
-            sqLiteDatabase.setLockingEnabled(false);
+            sqLiteDatabase.beginTransactionNonExclusive();
             for (T object: objects) {
                 save(object);
             }
@@ -61,22 +70,18 @@ public class SugarRecord {
             Log.i(SUGAR, "Error in saving in transaction " + e.getMessage());
         } finally {
             sqLiteDatabase.endTransaction();
-            sqLiteDatabase.setLockingEnabled(true);
         }
     }
 
-    @SuppressWarnings("deprecation")
     public static <T> int deleteInTx(T... objects) {
         return deleteInTx(Arrays.asList(objects));
     }
 
-    @SuppressWarnings("deprecation")
     public static <T> int deleteInTx(Collection<T> objects) {
         SQLiteDatabase sqLiteDatabase = getSugarDataBase();
         int deletedRows = 0;
         try {
-            sqLiteDatabase.beginTransaction();
-            sqLiteDatabase.setLockingEnabled(false);
+            sqLiteDatabase.beginTransactionNonExclusive();
             for (T object : objects) {
                 if (delete(object)) {
                     ++deletedRows;
@@ -88,7 +93,6 @@ public class SugarRecord {
             Log.i(SUGAR, "Error in deleting in transaction " + e.getMessage());
         } finally {
             sqLiteDatabase.endTransaction();
-            sqLiteDatabase.setLockingEnabled(true);
         }
         return deletedRows;
     }
@@ -148,7 +152,7 @@ public class SugarRecord {
     }
 
     public static <T> Iterator<T> findAsIterator(Class<T> type, String whereClause, String[] whereArgs, String groupBy, String orderBy, String limit) {
-        Cursor cursor = getSugarDataBase().query(NamingHelper.toSQLName(type), null, whereClause, whereArgs,
+        Cursor cursor = getSugarDataBase().query(EntityMetadata.get(type).getTableName(), null, whereClause, whereArgs,
                 groupBy, null, orderBy, limit);
         return new CursorIterator<T>(type, cursor);
     }
@@ -168,19 +172,21 @@ public class SugarRecord {
     }
 
     public static <T> List<T> find(Class<T> type, String whereClause, String[] whereArgs, String groupBy, String orderBy, String limit) {
-        Cursor cursor = getSugarDataBase().query(NamingHelper.toSQLName(type), null, whereClause, whereArgs,
+        Cursor cursor = getSugarDataBase().query(EntityMetadata.get(type).getTableName(), null, whereClause, whereArgs,
                 groupBy, null, orderBy, limit);
 
         return getEntitiesFromCursor(cursor, type);
     }
 
     public static <T> List<T> getEntitiesFromCursor(Cursor cursor, Class<T> type){
-        T entity;
-        List<T> result = new ArrayList<T>();
+        EntityMetadata<T> metadata = EntityMetadata.get(type);
+        Map<Object, Long> entitiesMap = getSugarContext().getEntitiesMap();
+        List<T> result = new ArrayList<T>(Math.max(cursor.getCount(), 0));
         try {
+            int[] columns = metadata.resolveColumns(cursor);
             while (cursor.moveToNext()) {
-                entity = type.getDeclaredConstructor().newInstance();
-                inflate(cursor, entity, getSugarContext().getEntitiesMap());
+                T entity = metadata.newInstance();
+                metadata.inflate(cursor, columns, entity, entitiesMap);
                 result.add(entity);
             }
         } catch (Exception e) {
@@ -226,47 +232,65 @@ public class SugarRecord {
         return result;
     }
 
+    /**
+     * Saves an object with statements compiled once per entity: records which already have an
+     * id are updated in place, and the others (or those which don't exist anymore) are
+     * inserted.
+     *
+     * The statements are shared between threads, so the database lock is always taken before
+     * the statement's monitor: a thread waiting for the database never holds a statement that
+     * the thread owning the transaction needs.
+     *
+     * @return the id of the object, or -1 if it couldn't be saved
+     */
+    @SuppressWarnings("unchecked")
     public static long save(Object object) {
-        return save(getSugarDataBase(), object);
-    }
-
-    static long save(SQLiteDatabase db, Object object) {
+        long start = System.nanoTime();
+        SugarDb sugarDb = getSugarContext().getSugarDb();
+        EntityMetadata<Object> metadata = (EntityMetadata<Object>) EntityMetadata.get(object.getClass());
         Map<Object, Long> entitiesMap = getSugarContext().getEntitiesMap();
-        List<Field> columns = ReflectionUtil.getTableFields(object.getClass());
-        ContentValues values = new ContentValues(columns.size());
-        Field idField = null;
-        for (Field column : columns) {
-            ReflectionUtil.addFieldValueToColumn(values, column, object, entitiesMap);
-            if (column.getName().equals("id")) {
-                idField = column;
-            }
-        }
+        Long id = metadata.getId(object, entitiesMap);
 
-        boolean isSugarEntity = isSugarEntity(object.getClass());
-        if (isSugarEntity && entitiesMap.containsKey(object)) {
-                values.put("id", entitiesMap.get(object));
-        }
-
-        long id = db.insertWithOnConflict(NamingHelper.toSQLName(object.getClass()), null, values,
-                SQLiteDatabase.CONFLICT_REPLACE);
+        SQLiteDatabase sqLiteDatabase = sugarDb.getDB();
+        sqLiteDatabase.beginTransactionNonExclusive();
+        try {
+            boolean updated = false;
+            if (id != null && metadata.getUpdateSql() != null) {
+                SQLiteStatement update = sugarDb.getStatement(metadata.getUpdateSql());
+                synchronized (update) {
+                    update.clearBindings();
+                    metadata.bind(object, update, entitiesMap);
+                    update.bindLong(metadata.getIdIndex(), id);
+                    updated = update.executeUpdateDelete() > 0;
+                }
+            }
 
-        if (object.getClass().isAnnotationPresent(Table.class)) {
-            if (idField != null) {
-                idField.setAccessible(true);
-                try {
-                    idField.set(object, new Long(id));
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
+            if (!updated) {
+                SQLiteStatement insert = sugarDb.getStatement(metadata.getInsertSql());
+                synchronized (insert) {
+                    insert.clearBindings();
+                    metadata.bind(object, insert, entitiesMap);
+                    if (id != null) {
+                        insert.bindLong(metadata.getIdIndex(), id);
+                    }
+                    id = insert.executeInsert();
                 }
-            } else {
-                entitiesMap.put(object, id);
+                metadata.setId(object, id, entitiesMap);
             }
-        } else if (SugarRecord.class.isAssignableFrom(object.getClass())) {
-            ((SugarRecord) object).setId(id);
+            sqLiteDatabase.setTransactionSuccessful();
+        } catch (SQLException e) {
+            Log.e(SUGAR, "Error saving " + object.getClass().getSimpleName(), e);
+            return -1;
+        } finally {
+            sqLiteDatabase.endTransaction();
         }
 
         Log.i(SUGAR, object.getClass().getSimpleName() + " saved : " + id);
 
+        SaveObserver observer = saveObserver;
+        if (observer != null) {
+            observer.onSaved(object.getClass(), System.nanoTime() - start);
+        }
         return id;
     }
 
@@ -274,28 +298,6 @@ public class SugarRecord {
         return objectClass.isAnnotationPresent(Table.class) || SugarRecord.class.isAssignableFrom(objectClass);
     }
 
-    private static void inflate(Cursor cursor, Object object, Map<Object, Long> entitiesMap) {
-        List<Field> columns = ReflectionUtil.getTableFields(object.getClass());
-        if (!entitiesMap.containsKey(object)) {
-            entitiesMap.put(object, cursor.getLong(cursor.getColumnIndex(("ID"))));
-        }
-
-        for (Field field : columns) {
-        	field.setAccessible(true);
-            Class<?> fieldType = field.getType();
-            if (isSugarEntity(fieldType)) {
-                try {
-                    long id = cursor.getLong(cursor.getColumnIndex(NamingHelper.toSQLName(field)));
-                    field.set(object, (id > 0) ? findById(fieldType, id) : null);
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
-                }
-            } else {
-                ReflectionUtil.setFieldValueFromCursor(cursor, field, object);
-            }
-        }
-    }
-
     public boolean delete() {
         Long id = getId();
         Class<?> type = getClass();
@@ -339,12 +341,13 @@ public class SugarRecord {
     }
 
     public long save() {
-        return save(getSugarDataBase(), this);
+        return save(this);
     }
 
     @SuppressWarnings("unchecked")
     void inflate(Cursor cursor) {
-        inflate(cursor, this, getSugarContext().getEntitiesMap());
+        EntityMetadata<SugarRecord> metadata = (EntityMetadata<SugarRecord>) EntityMetadata.get(getClass());
+        metadata.inflate(cursor, metadata.resolveColumns(cursor), this, getSugarContext().getEntitiesMap());
     }
 
     public Long getId() {
@@ -357,11 +360,17 @@ public class SugarRecord {
 
     static class CursorIterator<E> implements Iterator<E> {
         Class<E> type;
+        EntityMetadata<E> metadata;
+        int[] columns;
         Cursor cursor;
 
         public CursorIterator(Class<E> type, Cursor cursor) {
             this.type = type;
+            this.metadata = EntityMetadata.get(type);
             this.cursor = cursor;
+            if (cursor != null) {
+                this.columns = metadata.resolveColumns(cursor);
+            }
         }
 
         @Override
@@ -381,8 +390,8 @@ public class SugarRecord {
             }
 
             try {
-                entity = type.getDeclaredConstructor().newInstance();
-                inflate(cursor, entity, getSugarContext().getEntitiesMap());
+                entity = metadata.newInstance();
+                metadata.inflate(cursor, columns, entity, getSugarContext().getEntitiesMap());
             } catch (Exception e) {
                 e.printStackTrace();
             } finally {
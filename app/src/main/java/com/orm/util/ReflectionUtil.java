@@ -17,12 +17,10 @@
 
 package com.orm.util;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.os.Build;
 import android.util.Log;
 import com.orm.SugarRecord;
@@ -33,11 +31,8 @@ import dalvik.system.DexFile;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.math.BigDecimal;
 import java.net.URL;
-import java.sql.Timestamp;
 import java.util.*;
 
 public class ReflectionUtil {
@@ -72,166 +67,6 @@ public class ReflectionUtil {
         return fields;
     }
 
-    public static void addFieldValueToColumn(ContentValues values, Field column, Object object,
-                                             Map<Object, Long> entitiesMap) {
-        column.setAccessible(true);
-        Class<?> columnType = column.getType();
-        try {
-            String columnName = NamingHelper.toSQLName(column);
-            Object columnValue = column.get(object);
-
-            if (columnType.isAnnotationPresent(Table.class)) {
-                Field field = null;
-                try {
-                    field = columnType.getDeclaredField("id");
-                    field.setAccessible(true);
-                    values.put(columnName,
-                            (field != null)
-                                    ? String.valueOf(field.get(columnValue)) : "0");
-                } catch (NoSuchFieldException e) {
-                    if (entitiesMap.containsKey(columnValue)) {
-                        values.put(columnName, entitiesMap.get(columnValue));
-                    }
-                }
-            } else if (SugarRecord.class.isAssignableFrom(columnType)) {
-                values.put(columnName,
-                        (columnValue != null)
-                                ? String.valueOf(((SugarRecord) columnValue).getId())
-                                : "0");
-            } else {
-                if (columnType.equals(Short.class) || columnType.equals(short.class)) {
-                    values.put(columnName, (Short) columnValue);
-                } else if (columnType.equals(Integer.class) || columnType.equals(int.class)) {
-                    values.put(columnName, (Integer) columnValue);
-                } else if (columnType.equals(Long.class) || columnType.equals(long.class)) {
-                    values.put(columnName, (Long) columnValue);
-                } else if (columnType.equals(Float.class) || columnType.equals(float.class)) {
-                    values.put(columnName, (Float) columnValue);
-                } else if (columnType.equals(Double.class) || columnType.equals(double.class)) {
-                    values.put(columnName, (Double) columnValue);
-                } else if (columnType.equals(Boolean.class) || columnType.equals(boolean.class)) {
-                    values.put(columnName, (Boolean) columnValue);
-                } else if (columnType.equals(BigDecimal.class)) {
-                    try {
-                        values.put(columnName, column.get(object).toString());
-                    } catch (NullPointerException e) {
-                        values.putNull(columnName);
-                    }
-                } else if (Timestamp.class.equals(columnType)) {
-                    try {
-                        values.put(columnName, ((Timestamp) column.get(object)).getTime());
-                    } catch (NullPointerException e) {
-                        values.put(columnName, (Long) null);
-                    }
-                } else if (Date.class.equals(columnType)) {
-                    try {
-                        values.put(columnName, ((Date) column.get(object)).getTime());
-                    } catch (NullPointerException e) {
-                        values.put(columnName, (Long) null);
-                    }
-                } else if (Calendar.class.equals(columnType)) {
-                    try {
-                        values.put(columnName, ((Calendar) column.get(object)).getTimeInMillis());
-                    } catch (NullPointerException e) {
-                        values.put(columnName, (Long) null);
-                    }
-                } else if (columnType.equals(byte[].class)) {
-                    if (columnValue == null) {
-                        values.put(columnName, "".getBytes());
-                    } else {
-                        values.put(columnName, (byte[]) columnValue);
-                    }
-                } else {
-                    if (columnValue == null) {
-                        values.putNull(columnName);
-                    } else if (columnType.isEnum()) {
-                        values.put(columnName, ((Enum) columnValue).name());
-                    } else {
-                        values.put(columnName, String.valueOf(columnValue));
-                    }
-                }
-            }
-
-        } catch (IllegalAccessException e) {
-            Log.e("Sugar", e.getMessage());
-        }
-    }
-
-    public static void setFieldValueFromCursor(Cursor cursor, Field field, Object object) {
-        field.setAccessible(true);
-        try {
-            Class fieldType = field.getType();
-            String colName = NamingHelper.toSQLName(field);
-
-            int columnIndex = cursor.getColumnIndex(colName);
-
-            if (cursor.isNull(columnIndex)) {
-                return;
-            }
-
-            if (colName.equalsIgnoreCase("id")) {
-                long cid = cursor.getLong(columnIndex);
-                field.set(object, Long.valueOf(cid));
-            } else if (fieldType.equals(long.class) || fieldType.equals(Long.class)) {
-                field.set(object,
-                        cursor.getLong(columnIndex));
-            } else if (fieldType.equals(String.class)) {
-                String val = cursor.getString(columnIndex);
-                field.set(object, val != null && val.equals("null") ? null : val);
-            } else if (fieldType.equals(double.class) || fieldType.equals(Double.class)) {
-                field.set(object,
-                        cursor.getDouble(columnIndex));
-            } else if (fieldType.equals(boolean.class) || fieldType.equals(Boolean.class)) {
-                field.set(object,
-                        cursor.getString(columnIndex).equals("1"));
-            } else if (fieldType.equals(int.class) || fieldType.equals(Integer.class)) {
-                field.set(object,
-                        cursor.getInt(columnIndex));
-            } else if (fieldType.equals(float.class) || fieldType.equals(Float.class)) {
-                field.set(object,
-                        cursor.getFloat(columnIndex));
-            } else if (fieldType.equals(short.class) || fieldType.equals(Short.class)) {
-                field.set(object,
-                        cursor.getShort(columnIndex));
-            } else if (fieldType.equals(BigDecimal.class)) {
-                String val = cursor.getString(columnIndex);
-                field.set(object, val != null && val.equals("null") ? null : new BigDecimal(val));
-            } else if (fieldType.equals(Timestamp.class)) {
-                long l = cursor.getLong(columnIndex);
-                field.set(object, new Timestamp(l));
-            } else if (fieldType.equals(Date.class)) {
-                long l = cursor.getLong(columnIndex);
-                field.set(object, new Date(l));
-            } else if (fieldType.equals(Calendar.class)) {
-                long l = cursor.getLong(columnIndex);
-                Calendar c = Calendar.getInstance();
-                c.setTimeInMillis(l);
-                field.set(object, c);
-            } else if (fieldType.equals(byte[].class)) {
-                byte[] bytes = cursor.getBlob(columnIndex);
-                if (bytes == null) {
-                    field.set(object, "".getBytes());
-                } else {
-                    field.set(object, cursor.getBlob(columnIndex));
-                }
-            } else if (Enum.class.isAssignableFrom(fieldType)) {
-                try {
-                    Method valueOf = field.getType().getMethod("valueOf", String.class);
-                    String strVal = cursor.getString(columnIndex);
-                    Object enumVal = valueOf.invoke(field.getType(), strVal);
-                    field.set(object, enumVal);
-                } catch (Exception e) {
-                    Log.e("Sugar", "Enum cannot be read from Sqlite3 database. Please check the type of field " + field.getName());
-                }
-            } else
-                Log.e("Sugar", "Class cannot be read from Sqlite3 database. Please check the type of field " + field.getName() + "(" + field.getType().getName() + ")");
-        } catch (IllegalArgumentException e) {
-            Log.e("field set error", e.getMessage());
-        } catch (IllegalAccessException e) {
-            Log.e("field set error", e.getMessage());
-        }
-    }
-
     private static Field getDeepField(String fieldName, Class<?> type) throws NoSuchFieldException {
         try {
             Field field = type.getDeclaredField(fieldName);
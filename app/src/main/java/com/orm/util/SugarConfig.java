@@ -7,31 +7,26 @@ import android.util.Log;
 
 import java.lang.reflect.Field;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class SugarConfig {
 
-    static Map<Class<?>, List<Field>> fields = new HashMap<Class<?>, List<Field>>();
+    // The lists are unmodifiable, so they can be shared without any further synchronization.
+    static Map<Class<?>, List<Field>> fields = new ConcurrentHashMap<Class<?>, List<Field>>();
 
     public static void setFields(Class<?> clazz, List<Field> fieldz) {
-         fields.put(clazz, fieldz);
+         fields.put(clazz, Collections.unmodifiableList(fieldz));
     }
 
     public static List<Field> getFields(Class<?> clazz) {
-        if (fields.containsKey(clazz)) {
-            List<Field> list = fields.get(clazz);
-            return Collections.synchronizedList(list);
-        }
-
-        return null;
+        return fields.get(clazz);
     }
 
     public static void clearCache() {
         fields.clear();
-        fields = new HashMap<Class<?>, List<Field>>();
     }
 
-}
+}
\ No newline at end of file
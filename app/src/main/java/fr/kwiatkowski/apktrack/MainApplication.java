@@ -18,8 +18,10 @@
 package fr.kwiatkowski.apktrack;
 
 import android.content.Context;
+import com.orm.SugarRecord;
 import com.squareup.leakcanary.LeakCanary;
 import fr.kwiatkowski.apktrack.service.utils.KeyStoreFactory;
+import fr.kwiatkowski.apktrack.service.utils.Metrics;
 import org.acra.ACRA;
 import org.acra.ReportingInteractionMode;
 import org.acra.annotation.ReportsCrashes;
@@ -54,6 +56,14 @@ public class MainApplication extends com.orm.SugarApp
             return;
         }
         LeakCanary.install(this);
+
+        // Collect the duration of database writes along with the other metrics.
+        SugarRecord.setSaveObserver(new SugarRecord.SaveObserver() {
+            @Override
+            public void onSaved(Class<?> type, long duration_nanos) {
+                Metrics.record_duration("db.save_us/" + type.getSimpleName(), duration_nanos);
+            }
+        });
     }
 
     @Override
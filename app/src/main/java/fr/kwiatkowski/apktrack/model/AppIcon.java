@@ -25,6 +25,7 @@ import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import com.orm.SugarRecord;
+import com.orm.dsl.GenerateMapper;
 import fr.kwiatkowski.apktrack.MainActivity;
 
 import java.io.ByteArrayOutputStream;
@@ -41,10 +42,12 @@ import java.util.List;
  * The AppAdapter now fetches the necessary icons only when needed, and they can
  * also be freed as soon as they aren't displayed anymore.
  */
+@GenerateMapper
 public class AppIcon extends SugarRecord
 {
-    private byte[] _raw_image;
-    private String _owner; // Used as a foreign key into InstalledApp records.
+    // Package-private so that the generated AppIcon_Mapper can access them.
+    byte[] _raw_image;
+    String _owner; // Used as a foreign key into InstalledApp records.
     private static int _ICON_SIZE = 0;
 
     // --------------------------------------------------------------------------------------------
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.model;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import com.orm.SugarContext;
+import com.orm.SugarRecord;
+import fr.kwiatkowski.apktrack.MainActivity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queues the records written while the app list is built from the system, and commits them
+ * in chunks of <code>CHUNK_SIZE</code> operations per transaction. Writing each row in its
+ * own implicit transaction costs a journal commit per row, which made the first launch take
+ * seconds on devices with hundreds of packages.
+ */
+class BatchWriter
+{
+    public static final int CHUNK_SIZE = 50;
+
+    /**
+     * Queues a record to be inserted or updated.
+     */
+    void save(SugarRecord record) {
+        _to_save.add(record);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Queues an app to be deleted, along with the records associated with it.
+     */
+    void delete(InstalledApp app) {
+        _to_delete.add(app);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return Whether enough operations are queued to justify a commit.
+     */
+    boolean is_full() {
+        return _to_save.size() + _to_delete.size() >= CHUNK_SIZE;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Performs all the queued operations in a single transaction. If any of them fails, the
+     * whole transaction is rolled back.
+     * @return Whether the operations were committed.
+     */
+    boolean commit()
+    {
+        if (_to_save.isEmpty() && _to_delete.isEmpty()) {
+            return true;
+        }
+
+        long start = System.currentTimeMillis();
+        SQLiteDatabase db = SugarContext.getSugarContext().getSugarDb().getDB();
+        db.beginTransaction();
+        try
+        {
+            for (SugarRecord r : _to_save)
+            {
+                if (r.save() < 0) {
+                    throw new SQLException("Could not save " + r.getClass().getSimpleName() + ".");
+                }
+            }
+            for (InstalledApp app : _to_delete) {
+                InstalledApp.delete_with_dependencies(app);
+            }
+            db.setTransactionSuccessful();
+            Log.v(MainActivity.TAG, "[BatchWriter] Committed " + _to_save.size() + " saves and " +
+                    _to_delete.size() + " deletions in " + (System.currentTimeMillis() - start) + " ms.");
+            return true;
+        }
+        catch (SQLException e)
+        {
+            Log.e(MainActivity.TAG, "[BatchWriter.commit] Rolled back " + _to_save.size() + " saves and " +
+                    _to_delete.size() + " deletions.", e);
+            return false;
+        }
+        finally
+        {
+            db.endTransaction();
+            _to_save.clear();
+            _to_delete.clear();
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final List<SugarRecord> _to_save = new ArrayList<SugarRecord>();
+    private final List<InstalledApp> _to_delete = new ArrayList<InstalledApp>();
+}
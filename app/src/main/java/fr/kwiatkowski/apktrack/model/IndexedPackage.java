@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.model;
+
+import com.orm.SugarRecord;
+import com.orm.util.NamingHelper;
+
+import java.util.List;
+
+/**
+ * The latest version of a package according to the index of a repository (see the "index"
+ * attribute in sources.json). The contents of an index are stored locally so that the
+ * checks routed to the repository can be answered without any web request.
+ */
+public class IndexedPackage extends SugarRecord
+{
+    public IndexedPackage() {} // Default constructor for SugarORM
+
+    // --------------------------------------------------------------------------------------------
+
+    public IndexedPackage(String source, String package_name, String version, String download_url)
+    {
+        _source = source;
+        _package_name = package_name;
+        _version = version;
+        _download_url = download_url;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Looks up a package in the local copy of a repository index.
+     * @param source The name of the update source.
+     * @param package_name The package name of the app.
+     * @return The information stored for the package, or <code>null</code> if the index
+     * doesn't contain it.
+     */
+    public static IndexedPackage find_package(String source, String package_name)
+    {
+        List<IndexedPackage> res = find(IndexedPackage.class, "_source = ? AND _packagename = ?",
+                                        new String[] { source, package_name }, null, null, "1");
+        return res.size() == 0 ? null : res.get(0);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Deletes the local copy of a repository index. Called before a new version of the index
+     * is stored.
+     * @param source The name of the update source.
+     */
+    public static void clear(String source)
+    {
+        // Tables created by SugarORM have no index: add one the first time an index is stored,
+        // since every check routed to a repository looks a package up.
+        String table = NamingHelper.toSQLName(IndexedPackage.class);
+        executeQuery("CREATE INDEX IF NOT EXISTS " + table + "_LOOKUP ON " + table + " (_SOURCE, _PACKAGENAME)");
+        deleteAll(IndexedPackage.class, "_source = ?", source);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    public String get_version()         { return _version; }
+    public String get_download_url()    { return _download_url; }
+
+    // --------------------------------------------------------------------------------------------
+
+    private String _source;
+    private String _package_name;
+    private String _version;
+    private String _download_url;
+}
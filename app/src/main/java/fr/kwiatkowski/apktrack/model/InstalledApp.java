@@ -31,18 +31,47 @@ import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import com.orm.SugarRecord;
+import com.orm.dsl.GenerateMapper;
 import fr.kwiatkowski.apktrack.MainActivity;
+import fr.kwiatkowski.apktrack.core.Versions;
 import fr.kwiatkowski.apktrack.model.comparator.AlphabeticalComparator;
 import fr.kwiatkowski.apktrack.model.comparator.PackageInfoComparator;
+import fr.kwiatkowski.apktrack.model.comparator.SortableApp;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+@GenerateMapper
 public class InstalledApp extends SugarRecord
-                          implements Comparable<InstalledApp>
+                          implements Comparable<InstalledApp>, SortableApp
 {
+    // Bounds of the delay between two scheduled checks of an app.
+    public static final long MIN_CHECK_INTERVAL = 24 * 60 * 60 * 1000L;
+    public static final long MAX_CHECK_INTERVAL = 14 * MIN_CHECK_INTERVAL;
+    // Number of times an app is checked during its estimated release interval.
+    public static final int CHECKS_PER_RELEASE = 4;
+
+    /**
+     * Notified while the app list is being built or refreshed from the system.
+     */
+    public interface ProgressListener
+    {
+        /**
+         * Called from the thread building the list each time a chunk of apps has been
+         * committed to the database.
+         * @param apps The apps created or updated by the chunk.
+         * @param processed The number of installed packages processed so far.
+         * @param total The number of installed packages.
+         */
+        void on_progress(List<InstalledApp> apps, int processed, int total);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
     public InstalledApp() {} // Default constructor for SugarORM
 
     // --------------------------------------------------------------------------------------------
@@ -71,9 +100,12 @@ public class InstalledApp extends SugarRecord
      * in the database and the data returned by the system.
      * These events should now be detected through Intents instead.
      *
+     * The apps are written in chunks of {@link BatchWriter#CHUNK_SIZE} records per transaction.
+     *
      * @param pacman The PackageManager obtained from a Context object.
+     * @param listener An object notified after each chunk has been committed (may be null).
      */
-    public static void generate_applist_from_system(PackageManager pacman)
+    public static void generate_applist_from_system(PackageManager pacman, ProgressListener listener)
     {
         if (pacman == null)
         {
@@ -83,8 +115,23 @@ public class InstalledApp extends SugarRecord
         }
 
         List<PackageInfo> list = pacman.getInstalledPackages(PackageManager.GET_SIGNATURES);
-        for (PackageInfo pi : list) {
-            _create_application(pacman, pi);
+        BatchWriter writer = new BatchWriter();
+        List<InstalledApp> added = new ArrayList<InstalledApp>();
+        for (int i = 0 ; i < list.size() ; ++i)
+        {
+            InstalledApp app = _create_application(pacman, list.get(i), writer);
+            if (app != null) {
+                added.add(app);
+            }
+            if (writer.is_full() || i == list.size() - 1)
+            {
+                // Apps from a chunk which was rolled back are not announced.
+                boolean committed = writer.commit();
+                if (listener != null) {
+                    listener.on_progress(committed ? added : new ArrayList<InstalledApp>(), i + 1, list.size());
+                }
+                added = new ArrayList<InstalledApp>();
+            }
         }
     }
 
@@ -110,11 +157,16 @@ public class InstalledApp extends SugarRecord
      * Update the application list by detecting new apps and updating the version of known ones.
      * This function was added to support polling on Oreo as PACKAGE_ADDED broadcasts cannot be
      * received anymore.
+     * The changes are written in chunks of {@link BatchWriter#CHUNK_SIZE} records per
+     * transaction.
+     *
      * @param pacman The PackageManager obtained from a Context object.
+     * @param listener An object notified after each chunk of new or updated apps has been
+     *                 committed (may be null).
      * @return An array containing the number of updated, new and deleted apps detected
      * (respectively).
      */
-    public static int[] update_applist(PackageManager pacman)
+    public static int[] update_applist(PackageManager pacman, ProgressListener listener)
     {
         if (pacman == null)
         {
@@ -130,36 +182,60 @@ public class InstalledApp extends SugarRecord
         Collections.sort(list, new PackageInfoComparator());
 
         Log.v(MainActivity.TAG, "Launching app list refresh...");
-        for (PackageInfo pi : list)
+        // Read the whole model at once instead of querying it for each package.
+        Map<String, InstalledApp> known_apps = new HashMap<String, InstalledApp>();
+        for (InstalledApp app : listAll(InstalledApp.class)) {
+            known_apps.put(app.get_package_name(), app);
+        }
+
+        BatchWriter writer = new BatchWriter();
+        List<InstalledApp> modified = new ArrayList<InstalledApp>();
+        for (int i = 0 ; i < list.size() ; ++i)
         {
-            InstalledApp app = InstalledApp.find_app(pi.packageName);
+            PackageInfo pi = list.get(i);
+            InstalledApp app = known_apps.get(pi.packageName);
             // App is not present in the database: add it.
             if (app == null)
             {
-                _create_application(pacman, pi);
+                app = _create_application(pacman, pi, writer);
+                if (app != null) {
+                    modified.add(app);
+                }
                 results[1] += 1;
             }
             // The actual version differs from the one in the database. Update it.
             else if (!app.get_version().equals(pi.versionName))
             {
                 app.set_version(pi.versionName);
-                app.save();
+                writer.save(app);
+                modified.add(app);
                 results[0] += 1;
             }
+
+            if (writer.is_full() || i == list.size() - 1)
+            {
+                boolean committed = writer.commit();
+                if (listener != null) {
+                    listener.on_progress(committed ? modified : new ArrayList<InstalledApp>(), i + 1, list.size());
+                }
+                modified = new ArrayList<InstalledApp>();
+            }
         }
 
         // Finally, look for deleted apps.
-        Iterator<InstalledApp> installed_apps = InstalledApp.findAll(InstalledApp.class);
-        while (installed_apps.hasNext())
+        for (InstalledApp ia : known_apps.values())
         {
-            InstalledApp ia = installed_apps.next();
             if (!_is_app_in_package_list(ia.get_package_name(), list))
             {
-                // App was deleted.
-                ia.delete();
-                results[0] += 2;
+                // App was deleted: remove it along with its icon, validators, history...
+                writer.delete(ia);
+                results[2] += 1;
+                if (writer.is_full()) {
+                    writer.commit();
+                }
             }
         }
+        writer.commit();
         return results;
     }
 
@@ -172,19 +248,32 @@ public class InstalledApp extends SugarRecord
     public static void delete_app(String package_name)
     {
         InstalledApp app = find_app(package_name);
-        if (app != null)
+        if (app != null) {
+            delete_with_dependencies(app);
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Deletes an app from the model, along with all the records associated with it.
+     * @param app The app to delete.
+     */
+    static void delete_with_dependencies(InstalledApp app)
+    {
+        List<AppIcon> icons = find(AppIcon.class, "_owner = ?", app.get_package_name());
+        if (icons.size() != 1)
         {
-            List<AppIcon> icons = find(AppIcon.class, "_owner = ?", app.get_package_name());
-            if (icons.size() != 1)
-            {
-                Log.w(MainActivity.TAG, "[InstalledApp.delete_app] Deleting an app with " +
-                        icons.size() + " associated icons.");
-            }
-            for (AppIcon icon : icons) {
-                icon.delete();
-            }
-            app.delete();
+            Log.w(MainActivity.TAG, "[InstalledApp.delete_with_dependencies] Deleting an app with " +
+                    icons.size() + " associated icons.");
         }
+        for (AppIcon icon : icons) {
+            icon.delete();
+        }
+        PageValidators.clear_all(app.get_package_name());
+        VersionHistory.clear(app.get_package_name());
+        SourceMiss.clear_all(app.get_package_name());
+        app.delete();
     }
 
     // --------------------------------------------------------------------------------------------
@@ -209,7 +298,9 @@ public class InstalledApp extends SugarRecord
         try
         {
             PackageInfo pi = pacman.getPackageInfo(package_name, PackageManager.GET_SIGNATURES);
-            _create_application(pacman, pi);
+            BatchWriter writer = new BatchWriter();
+            _create_application(pacman, pi, writer);
+            writer.commit();
         }
         catch (PackageManager.NameNotFoundException e)
         {
@@ -312,9 +403,13 @@ public class InstalledApp extends SugarRecord
      * @param pacman The package manager used to read installed apps.
      * @param info The ApplicationInfo object related to the current app.
      * @param app The InstalledApp whose icon we're extracting.
+     * @param writer The object which will write the icon to the database.
      */
     @TargetApi(21)
-    private static void _handle_icon(PackageManager pacman, ApplicationInfo info, InstalledApp app)
+    private static void _handle_icon(PackageManager pacman,
+                                     ApplicationInfo info,
+                                     InstalledApp app,
+                                     BatchWriter writer)
     {
         if (info == null || app == null) {
             return;
@@ -325,7 +420,7 @@ public class InstalledApp extends SugarRecord
         }
 
         if (icon instanceof  BitmapDrawable) {
-            new AppIcon(app, (BitmapDrawable) icon).save();
+            writer.save(new AppIcon(app, (BitmapDrawable) icon));
         }
         else
         {
@@ -333,7 +428,7 @@ public class InstalledApp extends SugarRecord
             final Canvas canvas = new Canvas(bmp);
             icon.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
             icon.draw(canvas);
-            new AppIcon(app, new BitmapDrawable(Resources.getSystem(), bmp)).save();
+            writer.save(new AppIcon(app, new BitmapDrawable(Resources.getSystem(), bmp)));
         }
     }
 
@@ -385,15 +480,18 @@ public class InstalledApp extends SugarRecord
     /**
      * This function queries the system to obtain all the information needed to insert a new
      * app in the database.
-     * The app will be persisted by this function.
+     * The app and its icon are queued in the writer, and will be persisted when it is
+     * committed.
      *
      * @param pacman The package manager
      * @param pi The PackageInfo object related to the target application
+     * @param writer The object which will write the app to the database.
      * @return The resulting InstalledApp object, or <code>null</code> if the app couldn't be
      *         created (happens if the app is deleted while this function runs).
      */
     private static InstalledApp _create_application(PackageManager pacman,
-                                                    PackageInfo pi)
+                                                    PackageInfo pi,
+                                                    BatchWriter writer)
     {
         if (pi == null || pacman == null) {
             return null;
@@ -437,14 +535,42 @@ public class InstalledApp extends SugarRecord
         }
 
         // Handle the icon if there is one present.
-        _handle_icon(pacman, info, app);
+        _handle_icon(pacman, info, app, writer);
 
-        app.save();
+        writer.save(app);
         return app;
     }
 
     // --------------------------------------------------------------------------------------------
 
+    /**
+     * Decides when the app should be checked by the background service next, based on how
+     * often new versions have been detected in the past. Apps which are rarely updated are
+     * checked less often.
+     * Must be called after a check has been successfully completed.
+     */
+    public void schedule_next_check()
+    {
+        long interval = VersionHistory.estimate_release_interval(_package_name);
+        long delay = Math.max(MIN_CHECK_INTERVAL,
+                              Math.min(MAX_CHECK_INTERVAL, interval / CHECKS_PER_RELEASE));
+        _next_check_date = new Date(System.currentTimeMillis() + delay);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Checks whether the background service should check the app.
+     * @param date The date to compare the scheduled check with.
+     * @return True if the app has never been scheduled or if its next check is due at the
+     * given date.
+     */
+    public boolean is_check_due(Date date) {
+        return _next_check_date == null || !_next_check_date.after(date);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
     /**
      * Checks whether the app is up to date.
      * The current version is compared with the latest one in order to detect if a new version is
@@ -462,41 +588,7 @@ public class InstalledApp extends SugarRecord
             return false;
         }
 
-        // Special handling for Google Play Services: ignore the device-specific string.
-        String version = (_package_name.equals("com.google.android.gms")) ? _version.split(" ")[0] : _version;
-        String latest_version = (_package_name.equals("com.google.android.gms")) ? _latest_version.split(" ")[0] : _latest_version;
-
-        // Split the version number into tokens
-        String[] tokens_version = version.split("[., -]");
-        String[] tokens_latest = latest_version.split("[., -]");
-
-        // Version numbers don't even have the same structure. Revert to lexicographical comparison.
-        if (tokens_version.length != tokens_latest.length) {
-            return _version.compareTo(_latest_version) < 0;
-        }
-
-        // Compare tokens one by one.
-        for (int i = 0 ; i < tokens_version.length ; ++i)
-        {
-            try
-            {
-                int t1 = Integer.parseInt(tokens_version[i]);
-                int t2 = Integer.parseInt(tokens_latest[i]);
-                if (t1 != t2) { // Different tokens. We've hit a version mismatch.
-                    return t1 < t2;
-                }
-                // Otherwise (identical tokens), go on to the next token.
-            }
-            catch (NumberFormatException ignored)
-            {
-                // Tokens are not simple numbers. Fall back to lexicographical comparison.
-                int result = tokens_version[i].compareTo(tokens_latest[i]);
-                if (result != 0) {
-                    return result < 0; // True iff tokens_version[i] < tokens_latest[i]
-                }
-            }
-        }
-        return false; // All the tokens are identical: the two versions are the same.
+        return Versions.is_update_available(_package_name, _version, _latest_version);
     }
 
     // --------------------------------------------------------------------------------------------
@@ -546,6 +638,7 @@ public class InstalledApp extends SugarRecord
     public String   get_download_url()                   { return _download_url; }
     public String   get_error_message()                  { return _error_message; }
     public long     get_download_id()                    { return _download_id; }
+    public Date     get_next_check_date()                { return _next_check_date; }
 
     /**
      * This is not the way to obtain an app's update source (it only returns the app's name).
@@ -582,20 +675,22 @@ public class InstalledApp extends SugarRecord
 
     // --------------------------------------------------------------------------------------------
 
-    private String _package_name;
-    private String _display_name;
-    private String _version;
-    private String _latest_version = null;
-    private String _download_url = null;
-    private boolean _last_ckeck_error = false;
-    private String _error_message;
-    private boolean _system_app;
-    private Date _last_check_date;
-    private String _update_source;
-    private boolean _is_ignored = false;
-    private boolean _has_notified = false;
-    private boolean _is_currently_checking = false;
-    private long _download_id = 0;
-
-    private final static AlphabeticalComparator comparator = new AlphabeticalComparator();
+    // Package-private so that the generated InstalledApp_Mapper can access them.
+    String _package_name;
+    String _display_name;
+    String _version;
+    String _latest_version = null;
+    String _download_url = null;
+    boolean _last_ckeck_error = false;
+    String _error_message;
+    boolean _system_app;
+    Date _last_check_date;
+    String _update_source;
+    boolean _is_ignored = false;
+    boolean _has_notified = false;
+    boolean _is_currently_checking = false;
+    long _download_id = 0;
+    Date _next_check_date;
+
+    private final static AlphabeticalComparator<InstalledApp> comparator = new AlphabeticalComparator<InstalledApp>();
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.model;
+
+import com.orm.SugarRecord;
+
+import java.util.List;
+
+/**
+ * The HTTP validators (ETag and Last-Modified headers) returned by an update source the last
+ * time it was successfully queried for an app.
+ * They are sent back with the next request, which allows the server to answer with a
+ * 304 Not Modified if nothing has changed, and ApkTrack to skip parsing the page entirely.
+ */
+public class PageValidators extends SugarRecord
+{
+    public PageValidators() {} // Default constructor for SugarORM
+
+    // --------------------------------------------------------------------------------------------
+
+    private PageValidators(String package_name, String source)
+    {
+        _package_name = package_name;
+        _source = source;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the validators stored for a given app and update source.
+     * @param package_name The package name of the app.
+     * @param source The name of the update source.
+     * @return The stored validators, or <code>null</code> if there are none.
+     */
+    public static PageValidators find_validators(String package_name, String source)
+    {
+        if (package_name == null || source == null) {
+            return null;
+        }
+        List<PageValidators> res = find(PageValidators.class, "_packagename = ? AND _source = ?",
+                                        package_name, source);
+        return res.size() == 0 ? null : res.get(0);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Stores the validators obtained for an app and update source. If the server didn't
+     * return any, the existing ones are deleted.
+     * @param package_name The package name of the app.
+     * @param source The name of the update source.
+     * @param etag The contents of the ETag header (may be null).
+     * @param last_modified The contents of the Last-Modified header (may be null).
+     */
+    public static void store(String package_name, String source, String etag, String last_modified)
+    {
+        PageValidators v = find_validators(package_name, source);
+        if (etag == null && last_modified == null)
+        {
+            if (v != null) {
+                v.delete();
+            }
+            return;
+        }
+
+        if (v == null) {
+            v = new PageValidators(package_name, source);
+        }
+        else if (_same(etag, v._etag) && _same(last_modified, v._last_modified)) {
+            return; // Nothing to update.
+        }
+        v._etag = etag;
+        v._last_modified = last_modified;
+        v.save();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Deletes the validators stored for an app and update source.
+     * @param package_name The package name of the app.
+     * @param source The name of the update source.
+     */
+    public static void clear(String package_name, String source)
+    {
+        if (package_name == null || source == null) {
+            return;
+        }
+        deleteAll(PageValidators.class, "_packagename = ? AND _source = ?", package_name, source);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Deletes the validators stored for an app, for all update sources.
+     * @param package_name The package name of the app.
+     */
+    public static void clear_all(String package_name) {
+        deleteAll(PageValidators.class, "_packagename = ?", package_name);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static boolean _same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    public String get_etag()            { return _etag; }
+    public String get_last_modified()   { return _last_modified; }
+
+    // --------------------------------------------------------------------------------------------
+
+    private String _package_name;
+    private String _source;
+    private String _etag;
+    private String _last_modified;
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the regular expressions of the update sources which depend on the package name
+ * (i.e. contain <code>%1$s</code>) once they have been compiled for a given app.
+ * The least recently used patterns are evicted once <code>MAX_SIZE</code> is reached.
+ */
+public class PatternCache
+{
+    public static final int MAX_SIZE = 256;
+
+    /**
+     * Returns the pattern obtained by formatting a regular expression template with a package
+     * name, compiling it if it isn't in the cache.
+     * @param template The regular expression, as specified in sources.json.
+     * @param package_name The package name of the app being checked.
+     * @return The compiled pattern.
+     * @throws java.util.regex.PatternSyntaxException If the regular expression is invalid.
+     */
+    public static Pattern get(String template, String package_name)
+    {
+        String key = template + '\0' + package_name;
+        Pattern p;
+        synchronized (_cache) {
+            p = _cache.get(key);
+        }
+        if (p != null)
+        {
+            _hits.incrementAndGet();
+            return p;
+        }
+
+        _misses.incrementAndGet();
+        p = Pattern.compile(String.format(template, package_name)); // Outside of the lock.
+        synchronized (_cache) {
+            _cache.put(key, p);
+        }
+        return p;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    public static long get_hits()   { return _hits.get(); }
+    public static long get_misses() { return _misses.get(); }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static final AtomicLong _hits = new AtomicLong();
+    private static final AtomicLong _misses = new AtomicLong();
+    private static final Map<String, Pattern> _cache =
+            new LinkedHashMap<String, Pattern>(16, 0.75f, true) { // Access order
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+                    return size() > MAX_SIZE;
+                }
+            };
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.model;
+
+import com.orm.SugarRecord;
+
+import java.util.List;
+
+/**
+ * Describes the version of a repository index stored locally (see <code>IndexedPackage</code>):
+ * the HTTP validators returned along with it, and the timestamp written in the index itself.
+ * The index is only downloaded and parsed again if one of them changes.
+ *
+ * No record exists for a repository until its index has been stored entirely.
+ */
+public class RepositoryIndex extends SugarRecord
+{
+    public RepositoryIndex() {} // Default constructor for SugarORM
+
+    // --------------------------------------------------------------------------------------------
+
+    private RepositoryIndex(String source) {
+        _source = source;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @param source The name of the update source.
+     * @return The information about the stored index, or <code>null</code> if there is none.
+     */
+    public static RepositoryIndex find_index(String source)
+    {
+        List<RepositoryIndex> res = find(RepositoryIndex.class, "_source = ?", source);
+        return res.size() == 0 ? null : res.get(0);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Records that the index of a repository has been stored entirely.
+     * @param source The name of the update source.
+     * @param etag The contents of the ETag header (may be null).
+     * @param last_modified The contents of the Last-Modified header (may be null).
+     * @param timestamp The timestamp of the index (may be null).
+     */
+    public static void store(String source, String etag, String last_modified, String timestamp)
+    {
+        RepositoryIndex ri = find_index(source);
+        if (ri == null) {
+            ri = new RepositoryIndex(source);
+        }
+        ri._etag = etag;
+        ri._last_modified = last_modified;
+        ri._timestamp = timestamp;
+        ri.save();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Forgets about the stored index of a repository, so that it is downloaded entirely next
+     * time. Called when the local copy may be incomplete.
+     * @param source The name of the update source.
+     */
+    public static void clear(String source) {
+        deleteAll(RepositoryIndex.class, "_source = ?", source);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    public String get_etag()            { return _etag; }
+    public String get_last_modified()   { return _last_modified; }
+    public String get_timestamp()       { return _timestamp; }
+
+    // --------------------------------------------------------------------------------------------
+
+    private String _source;
+    private String _etag;
+    private String _last_modified;
+    private String _timestamp;
+}
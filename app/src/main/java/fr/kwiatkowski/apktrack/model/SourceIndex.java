@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.model;
+
+import android.util.Log;
+import fr.kwiatkowski.apktrack.MainActivity;
+import fr.kwiatkowski.apktrack.core.PackageRouter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Finds the update sources applicable to a package without going through every regular
+ * expression of sources.json.
+ *
+ * The package expressions of the entries are stored in a <code>PackageRouter</code>. The
+ * result of each lookup is memoized, since the same packages are looked up over and over.
+ */
+class SourceIndex
+{
+    /**
+     * An update source applicable to a package, along with the entry matching it.
+     */
+    static class Route
+    {
+        Route(UpdateSource source, UpdateSourceEntry entry)
+        {
+            this.source = source;
+            this.entry = entry;
+        }
+
+        final UpdateSource      source;
+        final UpdateSourceEntry entry;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Builds the index.
+     * @param sources The update sources, in the order given by sources.json.
+     */
+    SourceIndex(List<UpdateSource> sources)
+    {
+        for (UpdateSource source : sources)
+        {
+            for (UpdateSourceEntry entry : source.get_entries())
+            {
+                try {
+                    _router.add(entry.get_applicable_packages(), new Route(source, entry));
+                }
+                catch (PatternSyntaxException e) {
+                    Log.e(MainActivity.TAG, "[SourceIndex] Invalid package expression: " + entry.get_applicable_packages(), e);
+                }
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the update sources applicable to a package.
+     * @param package_name The package name of the application.
+     * @return The applicable sources in the order of sources.json, each of them associated with
+     * the first of its entries matching the package.
+     */
+    List<Route> get_routes(String package_name)
+    {
+        List<Route> routes = _memo.get(package_name);
+        if (routes != null) {
+            return routes;
+        }
+
+        routes = new ArrayList<Route>();
+        UpdateSource last = null;
+        for (Route r : _router.get(package_name))
+        {
+            // Entries are returned in order: only keep the first one of each source.
+            if (r.source != last)
+            {
+                last = r.source;
+                routes.add(r);
+            }
+        }
+        routes = Collections.unmodifiableList(routes);
+        _memo.put(package_name, routes);
+        return routes;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final PackageRouter<Route>      _router = new PackageRouter<Route>();
+    private final Map<String, List<Route>>  _memo = new ConcurrentHashMap<String, List<Route>>();
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.model;
+
+import com.orm.SugarRecord;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Remembers that an update source didn't know about an app, so that the update source
+ * discovery doesn't query it again for a while. Entries expire after <code>TTL</code>, since
+ * the app may be published on the source in the meantime.
+ */
+public class SourceMiss extends SugarRecord
+{
+    public static final long TTL = 7 * 24 * 60 * 60 * 1000L;
+
+    public SourceMiss() {} // Default constructor for SugarORM
+
+    // --------------------------------------------------------------------------------------------
+
+    private SourceMiss(String package_name, String source, Date expiry)
+    {
+        _package_name = package_name;
+        _source = source;
+        _expiry = expiry;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Checks whether an update source is known not to have any information about an app.
+     * @param package_name The package name of the app.
+     * @param source The name of the update source.
+     * @return True if the source answered with a 404 recently.
+     */
+    public static boolean is_known_missing(String package_name, String source)
+    {
+        List<SourceMiss> res = find(SourceMiss.class, "_packagename = ? AND _source = ?",
+                                    package_name, source);
+        if (res.size() == 0) {
+            return false;
+        }
+        if (res.get(0)._expiry.before(new Date()))
+        {
+            res.get(0).delete(); // The app may have been added since.
+            return false;
+        }
+        return true;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Records that an update source doesn't have any information about an app.
+     * @param package_name The package name of the app.
+     * @param source The name of the update source.
+     */
+    public static void record(String package_name, String source)
+    {
+        deleteAll(SourceMiss.class, "_packagename = ? AND _source = ?", package_name, source);
+        new SourceMiss(package_name, source, new Date(System.currentTimeMillis() + TTL)).save();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Forgets everything known about an app.
+     * @param package_name The package name of the app.
+     */
+    public static void clear_all(String package_name) {
+        deleteAll(SourceMiss.class, "_packagename = ?", package_name);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private String  _package_name;
+    private String  _source;
+    private Date    _expiry;
+}
@@ -24,20 +24,22 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import fr.kwiatkowski.apktrack.MainActivity;
+import fr.kwiatkowski.apktrack.core.Autoselection;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A simple class representing an update source.
@@ -46,6 +48,12 @@ import java.util.regex.Pattern;
 public class UpdateSource implements Serializable
 {
     private static ArrayList<UpdateSource> _SOURCES = null;
+    private static SourceIndex _INDEX = null;
+
+    // Maximum number of (decompressed) bytes read from a page, unless specified otherwise.
+    public static final int DEFAULT_MAX_BODY_SIZE = 2 * 1024 * 1024;
+    // Maximum number of packages queried in a single batch request, unless specified otherwise.
+    public static final int DEFAULT_BATCH_SIZE = 50;
 
     /**
      * The constructor is private, because outside classes are not supposed to create
@@ -62,18 +70,47 @@ public class UpdateSource implements Serializable
         this._name = name;
         this._url = url;
         this._entries = entries;
+        try {
+            this._host = new URL(url).getHost();
+        }
+        catch (MalformedURLException e) {
+            this._host = url;
+        }
     }
 
     // --------------------------------------------------------------------------------------------
 
     public String       get_name()              { return _name; }
     public String       get_url()               { return _url; }
+    public String       get_host()              { return _host; }
     public int          get_request_delay()     { return _request_delay; }
+    public int          get_max_body_size()     { return _max_body_size; }
+    public String       get_batch_url()         { return _batch_url; }
+    public String       get_batch_section()     { return _batch_section; }
+    public int          get_batch_size()        { return _batch_size; }
+    public String       get_index_url()         { return _index_url; }
+    List<UpdateSourceEntry> get_entries()       { return _entries; }
 
     // --------------------------------------------------------------------------------------------
 
     public void set_autoselect_conditions(List<String> conditions) { _autoselect_conditions = conditions; }
     public void set_request_delay(int delay) { _request_delay = delay; }
+    public void set_max_body_size(int size) { _max_body_size = size; }
+    public void set_index_url(String url) { _index_url = url; }
+
+    /**
+     * Enables batch requests for this source.
+     * @param url The URL to query. %1$s is replaced by a comma-separated list of packages.
+     * @param section A regular expression isolating the part of the response related to a
+     *                package (%1$s), in its first group.
+     * @param size The maximum number of packages per request.
+     */
+    public void set_batch(String url, String section, int size)
+    {
+        _batch_url = url;
+        _batch_section = section;
+        _batch_size = size;
+    }
 
     // --------------------------------------------------------------------------------------------
 
@@ -120,11 +157,23 @@ public class UpdateSource implements Serializable
                     String applicable_packages = it.next();
                     JSONObject entry = packages.getJSONObject(applicable_packages);
                     UpdateSourceEntry use = new UpdateSourceEntry(applicable_packages);
-                    use.set_version_regexp(entry.getString("version"));
-                    try {
-                        use.set_download_regexp(entry.getString("download_regexp"));
+                    String type = entry.optString("type", "regexp");
+                    if ("json".equals(type) || "xml".equals(type))
+                    {
+                        // Structured documents: "version" and "download_path" locate the values.
+                        use.set_extractor("json".equals(type) ? UpdateSourceEntry.extractor_type.JSON
+                                                              : UpdateSourceEntry.extractor_type.XML);
+                        use.set_version_path(entry.getString("version"));
+                        use.set_download_path(entry.optString("download_path", null));
+                    }
+                    else
+                    {
+                        use.set_version_regexp(entry.getString("version"));
+                        try {
+                            use.set_download_regexp(entry.getString("download_regexp"));
+                        }
+                        catch (JSONException ignored) {}
                     }
-                    catch (JSONException ignored) {}
                     try {
                         use.set_download_url(entry.getString("download"));
                     }
@@ -151,12 +200,33 @@ public class UpdateSource implements Serializable
                     }
                 }
 
-                // Get optional request delay (in milliseconds)
-                int delay = sources.getJSONObject(i).optInt("request_delay", 0);
-                if (delay > 0) {
+                // Get optional request delay (in milliseconds). An explicit 0 disables throttling.
+                int delay = sources.getJSONObject(i).optInt("request_delay", -1);
+                if (delay >= 0) {
                     us.set_request_delay(delay);
                 }
 
+                // Get the optional batch request information.
+                JSONObject batch = sources.getJSONObject(i).optJSONObject("batch");
+                if (batch != null)
+                {
+                    us.set_batch(batch.getString("url"),
+                                 batch.getString("section"),
+                                 batch.optInt("max_packages", DEFAULT_BATCH_SIZE));
+                }
+
+                // Get the optional repository index (F-Droid format) covering every package.
+                String index = sources.getJSONObject(i).optString("index", null);
+                if (index != null) {
+                    us.set_index_url(index);
+                }
+
+                // Get the optional maximum page size (in bytes).
+                int max_body_size = sources.getJSONObject(i).optInt("max_body_size", -1);
+                if (max_body_size > 0) {
+                    us.set_max_body_size(max_body_size);
+                }
+
                 _SOURCES.add(us);
             }
         }
@@ -165,6 +235,24 @@ public class UpdateSource implements Serializable
         } catch (JSONException e) {
             Log.e(MainActivity.TAG, "sources.json seems to be malformed!", e);
         }
+
+        // Index the sources which could be read.
+        _INDEX = new SourceIndex(_SOURCES);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the update sources applicable to a package, in the order of sources.json.
+     * @param package_name The package name of the application.
+     * @return The applicable sources, along with their entry matching the package.
+     */
+    private static List<SourceIndex.Route> _get_routes(String package_name)
+    {
+        if (_INDEX == null || package_name == null) {
+            return Collections.emptyList();
+        }
+        return _INDEX.get_routes(package_name);
     }
 
     // --------------------------------------------------------------------------------------------
@@ -203,13 +291,8 @@ public class UpdateSource implements Serializable
             }
         }
         // Find the first applicable source.
-        for (UpdateSource s : get_update_sources())
-        {
-            if (s.is_applicable(app)) {
-                return s;
-            }
-        }
-        return null;
+        List<SourceIndex.Route> routes = _get_routes(app.get_package_name());
+        return routes.isEmpty() ? null : routes.get(0).source;
     }
 
     // --------------------------------------------------------------------------------------------
@@ -269,10 +352,11 @@ public class UpdateSource implements Serializable
             }
         }
 
-        for (UpdateSource us : get_update_sources())
+        // Only the applicable sources need to be tested.
+        for (SourceIndex.Route r : _get_routes(pi.packageName))
         {
-            if (us.test_autoselection(pi.packageName, details)) {
-                return us;
+            if (r.source.test_autoselection(pi.packageName, details)) {
+                return r.source;
             }
         }
 
@@ -298,10 +382,11 @@ public class UpdateSource implements Serializable
         if (index == -1) {
             return null;
         }
-        for (int i = ++index ; i < _SOURCES.size() ; ++i)
+        // The applicable sources are sorted: return the first one located after the given one.
+        for (SourceIndex.Route r : _get_routes(app.get_package_name()))
         {
-            if (_SOURCES.get(i).is_applicable(app)) {
-                return _SOURCES.get(i);
+            if (_SOURCES.indexOf(r.source) > index) {
+                return r.source;
             }
         }
         return null;
@@ -320,18 +405,11 @@ public class UpdateSource implements Serializable
             return new String[] {};
         }
 
-        ArrayList<String> res = new ArrayList<String>();
-        if (get_update_sources() == null) {
-            return new String[] {};
-        }
-        for (UpdateSource s : get_update_sources())
-        {
-            if (s.is_applicable(app)) {
-                res.add(s.get_name());
-            }
+        List<SourceIndex.Route> routes = _get_routes(app.get_package_name());
+        String[] retval = new String[routes.size()];
+        for (int i = 0 ; i < routes.size() ; ++i) {
+            retval[i] = routes.get(i).source.get_name();
         }
-        String[] retval = new String[res.size()];
-        res.toArray(retval);
         return retval;
     }
 
@@ -357,17 +435,8 @@ public class UpdateSource implements Serializable
      * @param package_name The package name of the application to check.
      * @return Whether the UpdateSource is valid for a given application.
      */
-    public boolean is_applicable(String package_name)
-    {
-        // Verify that the update source supports given application by matching the package name.
-        for (UpdateSourceEntry pe : _entries)
-        {
-            Matcher m = Pattern.compile(pe.get_applicable_packages()).matcher(package_name);
-            if (m.find()) {
-                return true;
-            }
-        }
-        return false;
+    public boolean is_applicable(String package_name) {
+        return get_entry(package_name) != null;
     }
 
     // --------------------------------------------------------------------------------------------
@@ -380,11 +449,10 @@ public class UpdateSource implements Serializable
      */
     public UpdateSourceEntry get_entry(String package_name)
     {
-        for (UpdateSourceEntry use : _entries)
+        for (SourceIndex.Route r : _get_routes(package_name))
         {
-            Matcher m = Pattern.compile(use.get_applicable_packages()).matcher(package_name);
-            if (m.find()) {
-                return use;
+            if (r.source == this) {
+                return r.entry;
             }
         }
         return null;
@@ -412,25 +480,20 @@ public class UpdateSource implements Serializable
         if (_autoselect_conditions == null || !is_applicable(package_name)) {
             return false; // No available autoselection conditions: cannot be default.
         }
-
-        if (_autoselect_conditions.contains("applicable")) {
-            return true;
-        }
-
-        for (String detail : details)
-        {
-            if (_autoselect_conditions.contains(detail)) {
-                return true;
-            }
-        }
-        return false;
+        return Autoselection.matches(_autoselect_conditions, details);
     }
 
     // --------------------------------------------------------------------------------------------
 
     private String                          _name;
     private String                          _url;
+    private String                          _host;
     private List<String>                    _autoselect_conditions;
     private ArrayList<UpdateSourceEntry>    _entries;
     private int                             _request_delay = 200;
+    private int                             _max_body_size = DEFAULT_MAX_BODY_SIZE;
+    private String                          _batch_url = null;
+    private String                          _batch_section = null;
+    private int                             _batch_size = DEFAULT_BATCH_SIZE;
+    private String                          _index_url = null;
 }
\ No newline at end of file
@@ -17,18 +17,41 @@
 
 package fr.kwiatkowski.apktrack.model;
 
+import android.util.Log;
+import fr.kwiatkowski.apktrack.MainActivity;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
 /**
  * Represents an entry in the update source.
  * It describes regular expressions which correspond to a particular package
  * or set of packages.
+ *
+ * Regular expressions which don't depend on the package name are compiled once, when
+ * sources.json is read. The others are obtained through the <code>PatternCache</code>.
  */
 public class UpdateSourceEntry
 {
+    /**
+     * The way information is extracted from the pages returned by the update source.
+     * REGEXP: regular expressions applied to the raw text.
+     * JSON: paths in a JSON document (i.e. "versionName" or "apks[0].url").
+     * XML: names of the elements located under the F-Droid style &lt;application id="..."&gt;
+     * element of the app.
+     */
+    public enum extractor_type { REGEXP, JSON, XML }
+
+    private extractor_type _extractor = extractor_type.REGEXP;
+    private String _version_path;
+    private String _download_path;
     private String _applicable_packages;
     private String _version_regexp;
     private String _download_url;
     private String _download_regexp;
     private String _changelog_regexp;
+    private Pattern _version_pattern;
+    private Pattern _download_pattern;
 
     public UpdateSourceEntry(String applicable_packages) {
         _applicable_packages = applicable_packages;
@@ -37,11 +60,30 @@ public class UpdateSourceEntry
     public String get_applicable_packages() {
         return _applicable_packages;
     }
+    public extractor_type get_extractor() {
+        return _extractor;
+    }
+    public void set_extractor(extractor_type extractor) {
+        this._extractor = extractor;
+    }
+    public String get_version_path() {
+        return _version_path;
+    }
+    public void set_version_path(String version_path) {
+        this._version_path = version_path;
+    }
+    public String get_download_path() {
+        return _download_path;
+    }
+    public void set_download_path(String download_path) {
+        this._download_path = download_path;
+    }
     public String get_version_regexp() {
         return _version_regexp;
     }
     public void set_version_regexp(String version_regexp) {
         this._version_regexp = version_regexp;
+        this._version_pattern = _precompile(version_regexp);
     }
     public String get_download_url() {
         return _download_url;
@@ -54,6 +96,7 @@ public class UpdateSourceEntry
     }
     public void set_download_regexp(String download_regexp) {
         this._download_regexp = download_regexp;
+        this._download_pattern = _precompile(download_regexp);
     }
     public String get_changelog_regexp() {
         return _changelog_regexp;
@@ -61,4 +104,63 @@ public class UpdateSourceEntry
     public void set_changelog_regexp(String changelog_regexp) {
         this._changelog_regexp = changelog_regexp;
     }
-}
\ No newline at end of file
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @param package_name The package name of the app being checked.
+     * @return The compiled regular expression used to find the version number, or
+     * <code>null</code> if there is none.
+     */
+    public Pattern get_version_pattern(String package_name) {
+        return _get_pattern(_version_pattern, _version_regexp, package_name);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @param package_name The package name of the app being checked.
+     * @return The compiled regular expression used to find the download URL, or
+     * <code>null</code> if there is none.
+     */
+    public Pattern get_download_pattern(String package_name) {
+        return _get_pattern(_download_pattern, _download_regexp, package_name);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static Pattern _get_pattern(Pattern precompiled, String regexp, String package_name)
+    {
+        if (precompiled != null) {
+            return precompiled;
+        }
+        if (regexp == null) {
+            return null;
+        }
+        return PatternCache.get(regexp, package_name);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles a regular expression which is the same for every package.
+     * @param regexp The regular expression read from sources.json.
+     * @return The compiled pattern, or <code>null</code> if it depends on the package name
+     * (or cannot be compiled: the error will be reported when it is used).
+     */
+    private static Pattern _precompile(String regexp)
+    {
+        // Any format specifier may reference the package name.
+        if (regexp == null || regexp.contains("%")) {
+            return null;
+        }
+        try {
+            return Pattern.compile(regexp);
+        }
+        catch (PatternSyntaxException e)
+        {
+            Log.e(MainActivity.TAG, "[UpdateSourceEntry] Invalid regular expression: " + regexp, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.model;
+
+import com.orm.SugarRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A version of an app detected by a check, along with the date at which it was first seen.
+ * The history of an app is used to estimate how often it is updated.
+ */
+public class VersionHistory extends SugarRecord
+{
+    // Number of versions kept for each app.
+    public static final int MAX_ENTRIES = 10;
+
+    public VersionHistory() {} // Default constructor for SugarORM
+
+    // --------------------------------------------------------------------------------------------
+
+    private VersionHistory(String package_name, String version, Date date)
+    {
+        _package_name = package_name;
+        _version = version;
+        _date = date;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Records that a new version of an app has been detected.
+     * @param package_name The package name of the app.
+     * @param version The version which was detected.
+     */
+    public static void record(String package_name, String version)
+    {
+        List<VersionHistory> history = get_history(package_name);
+        if (history.size() > 0 && version.equals(history.get(history.size() - 1)._version)) {
+            return; // Already known.
+        }
+        new VersionHistory(package_name, version, new Date()).save();
+
+        // Forget the oldest versions.
+        for (int i = 0 ; i <= history.size() - MAX_ENTRIES ; ++i) {
+            history.get(i).delete();
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @param package_name The package name of the app.
+     * @return The versions detected for the app, from the oldest to the most recent.
+     */
+    public static List<VersionHistory> get_history(String package_name)
+    {
+        return find(VersionHistory.class, "_packagename = ?", new String[] { package_name },
+                    null, "_date ASC", null);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Estimates the time between two releases of an app.
+     *
+     * The estimate is the median of the intervals between the recorded versions, the time
+     * elapsed since the last one being counted as an interval as well: an app which hasn't
+     * been updated for a long time is assumed to be updated less often.
+     *
+     * @param package_name The package name of the app.
+     * @return The estimated interval in milliseconds, or 0 if nothing is known about the app.
+     */
+    public static long estimate_release_interval(String package_name)
+    {
+        List<VersionHistory> history = get_history(package_name);
+        if (history.size() == 0) {
+            return 0;
+        }
+
+        List<Long> intervals = new ArrayList<Long>();
+        for (int i = 1 ; i < history.size() ; ++i) {
+            intervals.add(history.get(i)._date.getTime() - history.get(i - 1)._date.getTime());
+        }
+        intervals.add(System.currentTimeMillis() - history.get(history.size() - 1)._date.getTime());
+        Collections.sort(intervals);
+        return intervals.get(intervals.size() / 2);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Deletes the history of an app.
+     * @param package_name The package name of the app.
+     */
+    public static void clear(String package_name) {
+        deleteAll(VersionHistory.class, "_packagename = ?", package_name);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    public String   get_version()   { return _version; }
+    public Date     get_date()      { return _date; }
+
+    // --------------------------------------------------------------------------------------------
+
+    private String  _package_name;
+    private String  _version;
+    private Date    _date;
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import android.text.TextUtils;
+import android.util.Log;
+import fr.kwiatkowski.apktrack.MainActivity;
+import fr.kwiatkowski.apktrack.model.PatternCache;
+import fr.kwiatkowski.apktrack.model.UpdateSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Groups the version checks aimed at update sources which can answer for several packages
+ * in a single request (see the "batch" object in sources.json).
+ *
+ * Packages are registered as soon as their check is queued. The first check which needs a
+ * result sends one request for every registered package which isn't covered yet (up to the
+ * source's batch size), and the response is split into per-package sections which the other
+ * checks pick up. Those sections are then parsed with the source's regular expressions as if
+ * they had been returned by a regular request.
+ */
+class BatchQuery
+{
+    /**
+     * The object performing the actual web requests.
+     */
+    interface Fetcher
+    {
+        GetResult fetch(UpdateSource source, String url);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    BatchQuery(Fetcher fetcher) {
+        _fetcher = fetcher;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Announces that a package will be checked against a source supporting batch requests.
+     * @param source The update source which will be queried.
+     * @param package_name The package name of the app.
+     */
+    synchronized void register(UpdateSource source, String package_name)
+    {
+        if (source.get_batch_url() == null) {
+            return;
+        }
+        Set<String> pending = _pending.get(source.get_name());
+        if (pending == null)
+        {
+            pending = new LinkedHashSet<String>();
+            _pending.put(source.get_name(), pending);
+        }
+        if (!_slots.containsKey(_key(source, package_name))) {
+            pending.add(package_name);
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Obtains the part of a batch response related to a package, sending the batch request
+     * if necessary.
+     * @param source The update source to query.
+     * @param package_name The package name of the app.
+     * @return The section of the response related to the app (or a 404 if the source didn't
+     * return one), or <code>null</code> if the batch request failed and a regular request
+     * should be performed instead.
+     */
+    GetResult get(UpdateSource source, String package_name)
+    {
+        Slot slot;
+        Map<String, Slot> batch = null;
+        synchronized (this)
+        {
+            slot = _slots.get(_key(source, package_name));
+            if (slot == null)
+            {
+                batch = _claim(source, package_name);
+                slot = batch.get(package_name);
+            }
+        }
+
+        if (batch != null) {
+            _send(source, batch);
+        }
+
+        try {
+            slot.done.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return slot.result;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Forgets all the results. Called at the end of a check cycle.
+     */
+    synchronized void clear()
+    {
+        _pending.clear();
+        _slots.clear();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Selects the packages which will be part of the next batch request and creates their
+     * slots. Must be called while holding the lock.
+     * @return The packages to query, starting with the one given as a parameter, and their
+     * slots.
+     */
+    private Map<String, Slot> _claim(UpdateSource source, String package_name)
+    {
+        List<String> batch = new ArrayList<String>();
+        batch.add(package_name);
+        Set<String> pending = _pending.get(source.get_name());
+        if (pending != null)
+        {
+            pending.remove(package_name);
+            for (String p : new ArrayList<String>(pending))
+            {
+                if (batch.size() >= source.get_batch_size()) {
+                    break;
+                }
+                batch.add(p);
+                pending.remove(p);
+            }
+        }
+
+        Map<String, Slot> slots = new LinkedHashMap<String, Slot>();
+        for (String p : batch)
+        {
+            Slot s = new Slot();
+            slots.put(p, s);
+            _slots.put(_key(source, p), s);
+        }
+        return slots;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Sends a batch request and fills the slots of the packages it covers.
+     */
+    private void _send(UpdateSource source, Map<String, Slot> batch)
+    {
+        Map<String, GetResult> results = new HashMap<String, GetResult>();
+        try
+        {
+            String url = String.format(source.get_batch_url(), TextUtils.join(",", batch.keySet()));
+            Log.v(MainActivity.TAG, "Querying " + source.get_name() + " for " + batch.size() + " packages.");
+            GetResult gr = _fetcher.fetch(source, url);
+            if (gr.get_status() != GetResult.status_code.SUCCESS)
+            {
+                Log.v(MainActivity.TAG, "Batch request failed: falling back to individual requests.");
+                return; // Leave the results null.
+            }
+
+            int matched = 0;
+            for (String p : batch.keySet())
+            {
+                Pattern section = PatternCache.get(source.get_batch_section(), Pattern.quote(p));
+                Matcher m = section.matcher(gr.get_page_contents());
+                if (m.find())
+                {
+                    results.put(p, new GetResult(m.group(1)));
+                    ++matched;
+                }
+                else { // The source doesn't know about this package.
+                    results.put(p, new GetResult(GetResult.status_code.ERROR_404));
+                }
+            }
+
+            // A response without a single section is not in the expected format (error page,
+            // unsupported endpoint...): it doesn't mean that no package is known.
+            if (matched == 0)
+            {
+                Log.v(MainActivity.TAG, "Batch response not understood: falling back to individual requests.");
+                results.clear();
+            }
+        }
+        catch (RuntimeException e)
+        {
+            Log.e(MainActivity.TAG, "[BatchQuery._send] Could not process the batch response.", e);
+            results.clear();
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                for (Map.Entry<String, Slot> e : batch.entrySet())
+                {
+                    Slot s = e.getValue();
+                    s.result = results.get(e.getKey());
+                    if (s.result == null && _slots.get(_key(source, e.getKey())) == s) {
+                        _slots.remove(_key(source, e.getKey())); // Don't keep failures.
+                    }
+                    s.done.countDown();
+                }
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static String _key(UpdateSource source, String package_name) {
+        return source.get_name() + '\n' + package_name;
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class Slot
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * The result of a package covered by a batch request, once it is available.
+     */
+    private static class Slot
+    {
+        final CountDownLatch    done = new CountDownLatch(1);
+        volatile GetResult      result = null;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final Fetcher                   _fetcher;
+    private final Map<String, Set<String>>  _pending = new HashMap<String, Set<String>>();
+    private final Map<String, Slot>         _slots = new HashMap<String, Slot>();
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import android.util.Log;
+import fr.kwiatkowski.apktrack.MainActivity;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the jobs submitted to the WebService on a bounded pool of worker threads.
+ *
+ * Jobs are sorted into lanes according to the host they are going to query. Only a
+ * limited number of jobs from the same lane may run at any given time, so that checking
+ * hundreds of apps against the Play Store does not starve the other update sources (or
+ * flood the Play Store). Throughput therefore grows with the number of distinct hosts.
+ *
+ * Jobs which have to wait before sending a request (i.e. because of an update source's
+ * request delay) are parked on a timer instead of occupying a worker thread. This applies
+ * to their first request, and to the following ones if the job suspends itself.
+ */
+public class CheckEngine
+{
+    public static final int POOL_SIZE = 6;
+    public static final int MAX_JOBS_PER_HOST = 2;
+
+    /**
+     * A unit of work handled by the engine.
+     */
+    public interface Job
+    {
+        /**
+         * Called on the intake thread before the job is queued. This is where any
+         * (potentially slow) lookup needed to determine the target host should take place.
+         * @return The host this job will query, or <code>null</code> if it doesn't perform
+         * network requests.
+         */
+        String get_host();
+
+        /**
+         * Called on a worker thread right before the job is started, to reserve the right
+         * to perform its first request.
+         * @return The number of milliseconds to wait before the job may start.
+         */
+        long reserve();
+
+        /**
+         * Performs the actual work. Called on one of the worker threads.
+         * @return 0 if the job is complete. Otherwise, the number of milliseconds after which
+         * this method has to be called again to resume the job.
+         */
+        long run();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @param on_idle A callback invoked (from a worker thread) every time the last pending
+     *                job completes.
+     */
+    public CheckEngine(Runnable on_idle)
+    {
+        _on_idle = on_idle;
+        _intake = Executors.newSingleThreadExecutor();
+        _workers = Executors.newFixedThreadPool(POOL_SIZE);
+        _timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Submits a job to the engine. This method returns immediately.
+     * @param job The job to run.
+     */
+    public void submit(final Job job)
+    {
+        synchronized (this) {
+            ++_pending;
+        }
+
+        _intake.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                String host = null;
+                try {
+                    host = job.get_host();
+                }
+                catch (RuntimeException e) {
+                    Log.e(MainActivity.TAG, "[CheckEngine.submit] Could not determine the target host.", e);
+                }
+                _enqueue(host == null ? "" : host, job);
+            }
+        });
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Blocks until a request to the given host may be performed.
+     * Jobs may query hosts other than the one of their lane (i.e. during update source
+     * discovery). Every request should therefore be wrapped between <code>acquire_host</code>
+     * and <code>release_host</code> so that the per-host limit is enforced.
+     * @param host The host which is about to be queried.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public void acquire_host(String host) throws InterruptedException {
+        _get_semaphore(host).acquire();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Releases the permit obtained through <code>acquire_host</code>.
+     * @param host The host which was queried.
+     */
+    public void release_host(String host) {
+        _get_semaphore(host).release();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return Whether no job is queued, waiting or running.
+     */
+    public synchronized boolean is_idle() {
+        return _pending == 0;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Stops the worker threads. Jobs which are still running are allowed to complete, but
+     * the jobs which haven't started yet are dropped.
+     */
+    public void shutdown()
+    {
+        _intake.shutdown();
+        _timer.shutdown();
+        _workers.shutdown();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private synchronized Semaphore _get_semaphore(String host)
+    {
+        Semaphore s = _host_semaphores.get(host);
+        if (s == null)
+        {
+            s = new Semaphore(MAX_JOBS_PER_HOST, true);
+            _host_semaphores.put(host, s);
+        }
+        return s;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Adds a job to its host's lane, and starts it right away if the lane isn't full.
+     */
+    private synchronized void _enqueue(String host, Job job)
+    {
+        Lane lane = _lanes.get(host);
+        if (lane == null)
+        {
+            lane = new Lane(host);
+            _lanes.put(host, lane);
+        }
+        lane.queue.add(job);
+        _dispatch(lane);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Starts as many jobs from the lane as its concurrency limit allows.
+     * Must be called while holding the engine's lock.
+     */
+    private void _dispatch(final Lane lane)
+    {
+        while (lane.running < MAX_JOBS_PER_HOST && !lane.queue.isEmpty())
+        {
+            Job job = lane.queue.poll();
+            ++lane.running;
+            try {
+                _workers.execute(_wrap(lane, job));
+            }
+            catch (RejectedExecutionException e) {
+                _on_job_dropped(lane); // The engine has been shut down.
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the task running a job on a worker thread, and releasing its lane slot once
+     * it is done.
+     */
+    private Runnable _wrap(final Lane lane, final Job job)
+    {
+        return new Runnable() {
+            private boolean _reserved = false;
+
+            @Override
+            public void run()
+            {
+                try
+                {
+                    long delay = 0;
+                    if (!_reserved)
+                    {
+                        _reserved = true;
+                        delay = job.reserve();
+                    }
+                    if (delay <= 0) {
+                        delay = job.run();
+                    }
+                    if (delay > 0)
+                    {
+                        // Free the worker thread and come back when the job may (re)start.
+                        // The job keeps its slot in the lane in the meantime.
+                        _park(lane, this, delay);
+                        return;
+                    }
+                }
+                catch (RuntimeException e) {
+                    Log.e(MainActivity.TAG, "[CheckEngine] A job terminated abnormally.", e);
+                }
+                _on_job_completed(lane);
+            }
+        };
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Puts a job aside on the timer, and hands it back to the workers after a delay.
+     * If the engine is shut down in the meantime, the job is dropped.
+     */
+    private void _park(final Lane lane, final Runnable task, long delay)
+    {
+        try
+        {
+            _timer.schedule(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        _workers.execute(task);
+                    }
+                    catch (RejectedExecutionException e) {
+                        _on_job_dropped(lane);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            _on_job_dropped(lane);
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private void _on_job_completed(Lane lane)
+    {
+        boolean idle;
+        synchronized (this)
+        {
+            --lane.running;
+            _dispatch(lane);
+            idle = --_pending == 0;
+        }
+        if (idle && _on_idle != null) {
+            _on_idle.run();
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Releases the lane slot of a job which could not be started or resumed because the
+     * engine was shut down.
+     */
+    private synchronized void _on_job_dropped(Lane lane)
+    {
+        Log.v(MainActivity.TAG, "[CheckEngine] Dropping a job after shutdown.");
+        --lane.running;
+        --_pending;
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class Lane
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * The jobs waiting for a given host, and the number of them currently running.
+     */
+    private static class Lane
+    {
+        Lane(String host) {
+            this.host = host;
+        }
+
+        final String        host;
+        final Queue<Job>    queue = new ArrayDeque<Job>();
+        int                 running = 0;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final Runnable                  _on_idle;
+    private final ExecutorService           _intake;
+    private final ExecutorService           _workers;
+    private final ScheduledExecutorService  _timer;
+    private final Map<String, Lane>         _lanes = new HashMap<String, Lane>();
+    private final Map<String, Semaphore>    _host_semaphores = new HashMap<String, Semaphore>();
+    private int                             _pending = 0;
+}
@@ -32,12 +32,13 @@ public class EventBusHelper
      * processed by the reciever, it is replaced by a new one. Otherwise, the existing
      * event is updated to include the new information.
      *
-     * This method only handles ModelModifiedMessage events.
+     * This method only handles ModelModifiedMessage events. Calls are serialized, since
+     * version checks may post events from several threads at once.
      *
      * @param type The type of the event to post
      * @param package_name The package concerned by the change.
      */
-    public static void post_sticky(ModelModifiedMessage.event_type type, String package_name)
+    public static synchronized void post_sticky(ModelModifiedMessage.event_type type, String package_name)
     {
         ModelModifiedMessage existing = EventBus.getDefault().getStickyEvent(ModelModifiedMessage.class);
         if (existing != null)
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import android.util.Log;
+import android.util.Xml;
+import com.orm.SugarRecord;
+import fr.kwiatkowski.apktrack.MainActivity;
+import fr.kwiatkowski.apktrack.model.IndexedPackage;
+import fr.kwiatkowski.apktrack.model.UpdateSource;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the contents of an F-Droid repository index (index.xml) in the database while it is
+ * being downloaded.
+ *
+ * For each &lt;application&gt; element, the version and APK of its first &lt;package&gt;
+ * (the most recent one) are kept. Packages are written by groups of <code>CHUNK_SIZE</code>,
+ * so that memory usage doesn't depend on the size of the index. If the timestamp of the
+ * repository is the one of the index already stored, reading stops immediately.
+ */
+class IndexParser implements StreamExtractor
+{
+    // Number of packages written to the database in a single transaction.
+    public static final int CHUNK_SIZE = 500;
+
+    /**
+     * @param source The update source whose index is read.
+     * @param known_timestamp The timestamp of the index currently stored (may be null).
+     */
+    IndexParser(UpdateSource source, String known_timestamp)
+    {
+        _source = source.get_name();
+        _known_timestamp = known_timestamp;
+        // APKs are located next to the index.
+        _base_url = source.get_index_url().substring(0, source.get_index_url().lastIndexOf('/') + 1);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the index and stores it.
+     * @param in The contents of the index.
+     * @return Always null: the information is stored in the database.
+     * @throws IOException If the index could not be read.
+     */
+    @Override
+    public VersionResult extract(Reader in) throws IOException
+    {
+        List<IndexedPackage> pending = new ArrayList<IndexedPackage>(CHUNK_SIZE);
+        String app = null, version = null, apk = null;
+        boolean in_package = false, package_seen = false;
+        try
+        {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(in);
+            for (int event = parser.next() ; event != XmlPullParser.END_DOCUMENT ; event = parser.next())
+            {
+                if (event == XmlPullParser.START_TAG)
+                {
+                    String name = parser.getName();
+                    if ("repo".equals(name))
+                    {
+                        _timestamp = parser.getAttributeValue(null, "timestamp");
+                        if (_timestamp != null && _timestamp.equals(_known_timestamp))
+                        {
+                            Log.v(MainActivity.TAG, "The index of " + _source + " hasn't changed.");
+                            _stopped_early = true;
+                            _complete = true;
+                            return null;
+                        }
+                    }
+                    else if ("application".equals(name))
+                    {
+                        app = parser.getAttributeValue(null, "id");
+                        version = apk = null;
+                        package_seen = false;
+                    }
+                    else if ("package".equals(name)) {
+                        in_package = app != null && !package_seen;
+                    }
+                    else if (in_package && version == null && "version".equals(name)) {
+                        version = parser.nextText().trim();
+                    }
+                    else if (in_package && apk == null && "apkname".equals(name)) {
+                        apk = parser.nextText().trim();
+                    }
+                }
+                else if (event == XmlPullParser.END_TAG)
+                {
+                    if ("package".equals(parser.getName()) && in_package)
+                    {
+                        in_package = false;
+                        package_seen = true;
+                    }
+                    else if ("application".equals(parser.getName()) && app != null)
+                    {
+                        if (version != null) {
+                            pending.add(new IndexedPackage(_source, app, version, apk == null ? null : _base_url + apk));
+                        }
+                        if (pending.size() >= CHUNK_SIZE) {
+                            _flush(pending);
+                        }
+                        app = null;
+                    }
+                }
+            }
+            _flush(pending);
+            _complete = true;
+            Log.v(MainActivity.TAG, "Stored " + _count + " packages from the index of " + _source + ".");
+        }
+        catch (XmlPullParserException e) {
+            Log.w(MainActivity.TAG, "The index of " + _source + " could not be parsed: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public boolean is_stopped_early() {
+        return _stopped_early;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return Whether the end of the index was reached, or the index was found to be identical
+     * to the one stored.
+     */
+    boolean is_complete() {
+        return _complete;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return Whether the stored index was modified, even partially.
+     */
+    boolean is_written() {
+        return _written;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return The timestamp of the repository, or null if the index doesn't contain one.
+     */
+    String get_timestamp() {
+        return _timestamp;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private void _flush(List<IndexedPackage> pending)
+    {
+        if (!_written)
+        {
+            // The previous version of the index is only deleted once the new one is being read.
+            IndexedPackage.clear(_source);
+            _written = true;
+        }
+        if (pending.size() == 0) {
+            return;
+        }
+        SugarRecord.saveInTx(pending);
+        _count += pending.size();
+        pending.clear();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final String    _source;
+    private final String    _known_timestamp;
+    private final String    _base_url;
+    private String          _timestamp = null;
+    private boolean         _stopped_early = false;
+    private boolean         _complete = false;
+    private boolean         _written = false;
+    private int             _count = 0;
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import android.content.Context;
+import android.util.Log;
+import de.greenrobot.event.EventBus;
+import fr.kwiatkowski.apktrack.MainActivity;
+import fr.kwiatkowski.apktrack.R;
+import fr.kwiatkowski.apktrack.model.InstalledApp;
+import fr.kwiatkowski.apktrack.model.PageValidators;
+import fr.kwiatkowski.apktrack.model.SourceMiss;
+import fr.kwiatkowski.apktrack.model.UpdateSource;
+import fr.kwiatkowski.apktrack.model.VersionHistory;
+import fr.kwiatkowski.apktrack.service.message.CreateToastMessage;
+import fr.kwiatkowski.apktrack.service.utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes a large number of synthetic apps through the version check pipeline, and reports
+ * the throughput and latency observed. Only meant to be used with the replay transport, so
+ * that the update sources are not flooded.
+ *
+ * The synthetic apps are assigned to the update sources for which responses were recorded,
+ * and are checked by the <code>CheckEngine</code> like regular apps, except that the request
+ * delays of the sources are not respected. They are deleted once the test is over.
+ */
+class LoadDriver implements CheckEngine.Job
+{
+    static final String REQUEST_SOURCE = "load_test";
+    static final String PACKAGE_PREFIX = "fr.kwiatkowski.apktrack.loadtest.app";
+    static final int DEFAULT_SIZE = 1000;
+    // Newer than anything the sources may return, so that no update notifications are shown.
+    private static final String INSTALLED_VERSION = "999999";
+
+    /**
+     * The object performing the actual checks.
+     */
+    interface Checker
+    {
+        /**
+         * Called before a check is queued.
+         * @return The update source which will be queried, or null if there is none.
+         */
+        UpdateSource prepare(InstalledApp app);
+
+        /**
+         * Performs the version check of an app.
+         */
+        void check(InstalledApp app);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @param ctx The context used to report the results.
+     * @param engine The engine which will run the checks.
+     * @param size The number of synthetic apps to check.
+     * @param hosts The hosts for which responses were recorded.
+     * @param checker The object performing the checks.
+     */
+    LoadDriver(Context ctx, CheckEngine engine, int size, Set<String> hosts, Checker checker)
+    {
+        _ctx = ctx;
+        _engine = engine;
+        _size = size;
+        _hosts = hosts;
+        _checker = checker;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public String get_host() {
+        return null;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public long reserve() {
+        return 0;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the synthetic apps and submits their checks. The results are reported when the
+     * last check completes.
+     */
+    @Override
+    public long run()
+    {
+        List<UpdateSource> sources = new ArrayList<UpdateSource>();
+        for (UpdateSource s : UpdateSource.get_update_sources())
+        {
+            if (_hosts.contains(s.get_host()) && s.is_applicable(PACKAGE_PREFIX + 0)) {
+                sources.add(s);
+            }
+        }
+        if (sources.isEmpty() || _size <= 0)
+        {
+            Log.w(MainActivity.TAG, "[LoadDriver] No recorded responses can be used for synthetic apps.");
+            EventBus.getDefault().post(new CreateToastMessage(_ctx.getString(R.string.load_test_no_fixtures)));
+            return 0;
+        }
+
+        Log.i(MainActivity.TAG, "[LoadDriver] Checking " + _size + " synthetic apps against " +
+                sources.size() + " update sources.");
+        _latencies = new long[_size];
+        _remaining = new AtomicInteger(_size);
+        _start = System.nanoTime();
+        for (int i = 0 ; i < _size ; ++i)
+        {
+            InstalledApp app = new InstalledApp(PACKAGE_PREFIX + i, "Load test " + i,
+                                                INSTALLED_VERSION, null, false);
+            app.set_update_source(sources.get(i % sources.size()).get_name());
+            _engine.submit(new CheckJob(app, i));
+        }
+        return 0;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Reports the results of the test and deletes the synthetic apps.
+     */
+    private void _finish()
+    {
+        long elapsed = System.nanoTime() - _start;
+        long[] sorted = _latencies.clone();
+        Arrays.sort(sorted);
+        double seconds = elapsed / 1e9;
+        String report = _ctx.getString(R.string.load_test_report,
+                _size, seconds, _size / seconds,
+                _percentile(sorted, 0.5), _percentile(sorted, 0.99), sorted[sorted.length - 1] / 1000000,
+                _failures.get());
+        Log.i(MainActivity.TAG, "[LoadDriver] " + report + String.format(Locale.US,
+                " p90: %d ms, p999: %d ms.", _percentile(sorted, 0.9), _percentile(sorted, 0.999)));
+        EventBus.getDefault().post(new CreateToastMessage(report));
+
+        String like = PACKAGE_PREFIX + "%";
+        PageValidators.deleteAll(PageValidators.class, "_packagename LIKE ?", like);
+        VersionHistory.deleteAll(VersionHistory.class, "_packagename LIKE ?", like);
+        SourceMiss.deleteAll(SourceMiss.class, "_packagename LIKE ?", like);
+        InstalledApp.deleteAll(InstalledApp.class, "_packagename LIKE ?", like);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @param sorted The latencies of the checks in nanoseconds, in ascending order.
+     * @param p The requested percentile, between 0 and 1.
+     * @return The latency below which this fraction of the checks completed, in milliseconds.
+     */
+    private static long _percentile(long[] sorted, double p) {
+        return sorted[(int) Math.ceil(p * sorted.length) - 1] / 1000000;
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class CheckJob
+    // --------------------------------------------------------------------------------------------
+
+    private class CheckJob implements CheckEngine.Job
+    {
+        CheckJob(InstalledApp app, int index)
+        {
+            _app = app;
+            _index = index;
+        }
+
+        @Override
+        public String get_host()
+        {
+            UpdateSource source = _checker.prepare(_app);
+            return source == null ? null : source.get_host();
+        }
+
+        @Override
+        public long reserve() {
+            return 0; // The replay server doesn't need to be spared.
+        }
+
+        @Override
+        public long run()
+        {
+            long start = System.nanoTime();
+            try {
+                _checker.check(_app);
+            }
+            finally
+            {
+                long duration = System.nanoTime() - start;
+                Metrics.record_duration("loadtest.check_us", duration);
+                _latencies[_index] = duration;
+                if (_app.get_latest_version() == null) {
+                    _failures.incrementAndGet();
+                }
+                if (_remaining.decrementAndGet() == 0) {
+                    _finish();
+                }
+            }
+            return 0;
+        }
+
+        private final InstalledApp  _app;
+        private final int           _index;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final Context       _ctx;
+    private final CheckEngine   _engine;
+    private final int           _size;
+    private final Set<String>   _hosts;
+    private final Checker       _checker;
+    private final AtomicInteger _failures = new AtomicInteger(0);
+    private AtomicInteger       _remaining;
+    private long[]              _latencies;
+    private long                _start;
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Keeps the pages downloaded during a check cycle, indexed by URL.
+ *
+ * Some update sources serve the information for many packages from a single URL (i.e. a
+ * repository index). Requests for a URL which has already been downloaded during the cycle
+ * are answered from memory, and simultaneous requests for the same URL are collapsed into a
+ * single download whose result is shared by all the callers.
+ *
+ * Only successful results are kept: errors are shared with the requests which were waiting
+ * for them, but the next request will try again.
+ */
+class PageCache
+{
+    // Maximum time a page is kept, in case a cycle lasts unusually long.
+    public static final long TTL = 10 * 60 * 1000;
+
+    /**
+     * Returns the page located at a given URL, downloading it if necessary.
+     * @param url The URL of the page.
+     * @param fetcher The object which performs the actual download, if needed.
+     * @return The result of the request.
+     */
+    public GetResult get(String url, Callable<GetResult> fetcher)
+    {
+        Entry e = _entries.get(url);
+        if (e != null && e.is_expired())
+        {
+            _entries.remove(url, e);
+            e = null;
+        }
+
+        boolean owner = false;
+        if (e == null)
+        {
+            Entry created = new Entry(fetcher);
+            e = _entries.putIfAbsent(url, created);
+            if (e == null)
+            {
+                e = created;
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            e.task.run(); // Perform the download on this thread.
+        }
+
+        GetResult res;
+        try {
+            res = e.task.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return new GetResult(GetResult.status_code.NETWORK_ERROR);
+        }
+        catch (ExecutionException ex) {
+            res = new GetResult(ex);
+        }
+
+        if (owner && !res.is_success()) {
+            _entries.remove(url, e); // Don't keep errors.
+        }
+        return res;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Forgets every page. Called at the end of a check cycle.
+     */
+    public void clear() {
+        _entries.clear();
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class Entry
+    // --------------------------------------------------------------------------------------------
+
+    private static class Entry
+    {
+        Entry(Callable<GetResult> fetcher) {
+            task = new FutureTask<GetResult>(fetcher);
+        }
+
+        boolean is_expired() {
+            return task.isDone() && System.currentTimeMillis() - _created > TTL;
+        }
+
+        final FutureTask<GetResult> task;
+        private final long          _created = System.currentTimeMillis();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+}
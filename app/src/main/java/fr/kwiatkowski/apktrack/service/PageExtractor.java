@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import android.util.Log;
+import fr.kwiatkowski.apktrack.MainActivity;
+import fr.kwiatkowski.apktrack.core.WindowScanner;
+import fr.kwiatkowski.apktrack.model.UpdateSourceEntry;
+import fr.kwiatkowski.apktrack.service.utils.Diagnostics;
+import fr.kwiatkowski.apktrack.service.utils.Metrics;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Pattern;
+
+/**
+ * Applies the regular expressions of an <code>UpdateSourceEntry</code> to a page while it is
+ * being downloaded. The scanning itself is performed by a <code>WindowScanner</code>, so the
+ * page is never held in memory as a whole and reading stops as soon as every piece of
+ * information has been found.
+ */
+class PageExtractor implements StreamExtractor
+{
+    /**
+     * @param source The name of the update source serving the page.
+     * @param entry The object containing the regular expressions to apply.
+     * @param package_name The name of the app currently being checked.
+     * @param not_found A pattern which, when present in the page, indicates that the update
+     *                  source doesn't know about the app (may be null).
+     */
+    PageExtractor(String source, UpdateSourceEntry entry, String package_name, Pattern not_found)
+    {
+        _source = source;
+        _entry = entry.get_applicable_packages();
+        _package_name = package_name;
+        Pattern download = null;
+        if (entry.get_download_url() != null) {
+            _result.set_download_url(entry.get_download_url());
+        }
+        else {
+            download = entry.get_download_pattern(package_name);
+        }
+        _scanner = new WindowScanner(new Pattern[] { entry.get_version_pattern(package_name), download },
+                                     not_found);
+        _has_download_pattern = download != null;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the page until all the information has been extracted or the end of the stream
+     * is reached.
+     * @param in The contents of the page.
+     * @return An object containing all the version information.
+     * @throws FileNotFoundException If the page indicates that the app is unknown.
+     * @throws IOException If the page could not be read.
+     */
+    @Override
+    public VersionResult extract(Reader in) throws IOException
+    {
+        String[] results = _scanner.scan(in);
+        if (results[0] != null) {
+            _result.set_latest_version(results[0]);
+        }
+        else
+        {
+            Log.v(MainActivity.TAG, "The regular expression could not find a version number.");
+            Metrics.increment("extract.misses/" + _source);
+            // Keep the end of the page to debug the problem.
+            Diagnostics.record(_source, _entry, _package_name, "version", _scanner.get_window());
+        }
+
+        if (results[1] != null) {
+            _result.set_download_url(results[1]);
+        }
+        else if (_has_download_pattern)
+        {
+            Log.v(MainActivity.TAG, "The regular expression could not find a download URL.");
+            Diagnostics.record(_source, _entry, _package_name, "download URL", _scanner.get_window());
+        }
+        Log.v(MainActivity.TAG, String.format("Obtained version: %s - Download URL: %s",
+                _result.get_latest_version(), _result.get_download_url()));
+        return _result;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return Whether reading was interrupted before the end of the page.
+     */
+    @Override
+    public boolean is_stopped_early() {
+        return _scanner.is_stopped_early();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final WindowScanner _scanner;
+    private final boolean       _has_download_pattern;
+    private final String        _source;
+    private final String        _entry;
+    private final String        _package_name;
+    private final VersionResult _result = new VersionResult();
+}
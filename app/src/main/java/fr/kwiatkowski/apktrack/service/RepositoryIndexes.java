@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import android.util.Log;
+import fr.kwiatkowski.apktrack.MainActivity;
+import fr.kwiatkowski.apktrack.model.IndexedPackage;
+import fr.kwiatkowski.apktrack.model.RepositoryIndex;
+import fr.kwiatkowski.apktrack.model.UpdateSource;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers the version checks aimed at update sources which publish an index of every package
+ * they host (see the "index" attribute in sources.json).
+ *
+ * The first check routed to such a source during a check cycle refreshes the local copy of
+ * its index with a conditional request; the other checks wait for it to finish. Every check is
+ * then answered by looking the package up in the database.
+ */
+class RepositoryIndexes
+{
+    /**
+     * The object performing the actual web requests.
+     */
+    interface Fetcher
+    {
+        GetResult fetch(UpdateSource source, String url, String etag, String last_modified,
+                        StreamExtractor extractor);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    RepositoryIndexes(Fetcher fetcher) {
+        _fetcher = fetcher;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Obtains the latest version of a package from the index of a repository, refreshing it
+     * if this wasn't done during the current check cycle.
+     * @param source The update source to query.
+     * @param package_name The package name of the app.
+     * @return The version information of the package (or a 404 if the index doesn't contain
+     * it), or <code>null</code> if the index is unavailable and a regular request should be
+     * performed instead.
+     */
+    GetResult get(UpdateSource source, String package_name)
+    {
+        Boolean available;
+        synchronized (_lock(source))
+        {
+            available = _refreshed.get(source.get_name());
+            if (available == null)
+            {
+                available = _refresh(source);
+                _refreshed.put(source.get_name(), available);
+            }
+        }
+
+        IndexedPackage p = IndexedPackage.find_package(source.get_name(), package_name);
+        if (p != null)
+        {
+            VersionResult vr = new VersionResult();
+            vr.set_latest_version(p.get_version());
+            if (p.get_download_url() != null) {
+                vr.set_download_url(p.get_download_url());
+            }
+            return new GetResult(vr);
+        }
+        // The absence of a package only means something if the index is complete.
+        return available ? new GetResult(GetResult.status_code.ERROR_404) : null;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Forgets which indexes were refreshed. Called at the end of a check cycle.
+     */
+    void clear() {
+        _refreshed.clear();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Downloads the index of a repository if it has changed and stores it.
+     * @return Whether a complete copy of the index is available locally.
+     */
+    private boolean _refresh(UpdateSource source)
+    {
+        RepositoryIndex known = RepositoryIndex.find_index(source.get_name());
+        IndexParser parser = new IndexParser(source, known == null ? null : known.get_timestamp());
+        GetResult gr = _fetcher.fetch(source,
+                                      source.get_index_url(),
+                                      known == null ? null : known.get_etag(),
+                                      known == null ? null : known.get_last_modified(),
+                                      parser);
+
+        if (gr.get_status() == GetResult.status_code.NOT_MODIFIED) {
+            return true;
+        }
+        if (gr.get_status() == GetResult.status_code.SUCCESS && parser.is_complete())
+        {
+            RepositoryIndex.store(source.get_name(), gr.get_etag(), gr.get_last_modified(),
+                                  parser.get_timestamp());
+            return true;
+        }
+
+        Log.v(MainActivity.TAG, "The index of " + source.get_name() + " could not be refreshed.");
+        if (parser.is_written())
+        {
+            // The local copy is incomplete: make sure it is downloaded again next time.
+            RepositoryIndex.clear(source.get_name());
+            return false;
+        }
+        return known != null; // The previous copy is still there.
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private synchronized Object _lock(UpdateSource source)
+    {
+        Object lock = _locks.get(source.get_name());
+        if (lock == null)
+        {
+            lock = new Object();
+            _locks.put(source.get_name(), lock);
+        }
+        return lock;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final Fetcher               _fetcher;
+    private final Map<String, Object>   _locks = new HashMap<String, Object>();
+    // Whether a complete index is available, for each source refreshed during this cycle.
+    private final Map<String, Boolean>  _refreshed = new ConcurrentHashMap<String, Boolean>();
+}
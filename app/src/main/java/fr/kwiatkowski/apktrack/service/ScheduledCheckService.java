@@ -25,11 +25,15 @@ import fr.kwiatkowski.apktrack.MainActivity;
 import fr.kwiatkowski.apktrack.model.InstalledApp;
 import fr.kwiatkowski.apktrack.ui.SettingsFragment;
 
+import java.util.Date;
 import java.util.List;
 
 public class ScheduledCheckService extends WakefulIntentService
 {
     public static String SERVICE_SOURCE = "service"; // Tag used to identify the origin of a version check request.
+    // The cycle doesn't start exactly at the same time every day: apps due a little later
+    // are checked right away instead of waiting for the next one.
+    public static final long SCHEDULING_TOLERANCE = 2 * 60 * 60 * 1000;
 
     public ScheduledCheckService()
     {
@@ -51,12 +55,20 @@ public class ScheduledCheckService extends WakefulIntentService
                 "_isignored = 0 AND _iscurrentlychecking = 0");
 
         Log.v(MainActivity.TAG, "New update cycle started! (" + app_list.size() + " apps to check)");
+        Date due = new Date(System.currentTimeMillis() + SCHEDULING_TOLERANCE);
+        int skipped = 0;
         for (InstalledApp app : app_list)
         {
             // If we already know that the application is outdated or if the last check resulted in a fatal error, don't look for more updates.
             if (app.is_update_available() || app.is_last_ckeck_error()) {
                 continue;
             }
+            // Apps which are rarely updated don't need to be checked every day.
+            if (!app.is_check_due(due))
+            {
+                ++skipped;
+                continue;
+            }
 
             // Launch an update check
             Intent i = new Intent(this, WebService.class);
@@ -65,5 +77,6 @@ public class ScheduledCheckService extends WakefulIntentService
             i.putExtra(WebService.ACTION, WebService.ACTION_VERSION_CHECK);
             startService(i);
         }
+        Log.v(MainActivity.TAG, skipped + " apps are not due for a check yet.");
     }
 }
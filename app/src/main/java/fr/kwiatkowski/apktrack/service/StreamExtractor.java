@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * An object which processes the body of a response while it is being downloaded, so that it
+ * never has to be held in memory as a whole.
+ */
+interface StreamExtractor
+{
+    /**
+     * Reads the body of the response.
+     * @param in The contents of the page.
+     * @return The version information found in the page, if the extractor looks for any.
+     * @throws IOException If the page could not be read.
+     */
+    VersionResult extract(Reader in) throws IOException;
+
+    /**
+     * @return Whether reading was interrupted before the end of the page.
+     */
+    boolean is_stopped_early();
+}
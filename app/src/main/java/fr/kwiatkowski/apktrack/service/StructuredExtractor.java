@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import android.util.Log;
+import android.util.Xml;
+import fr.kwiatkowski.apktrack.MainActivity;
+import fr.kwiatkowski.apktrack.model.UpdateSourceEntry;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Extracts version information from update sources serving structured documents, instead of
+ * applying regular expressions to their raw text.
+ *
+ * JSON documents are looked up with dot-separated paths such as <code>versionName</code> or
+ * <code>apks[0].url</code>. XML documents are expected to follow the layout of F-Droid
+ * repository indexes: the document is read with a pull parser until the
+ * <code>&lt;application id="..."&gt;</code> element of the app is found, and the values are
+ * the text of the first elements with the requested names inside it. Parsing stops as soon
+ * as that element is closed.
+ */
+class StructuredExtractor
+{
+    /**
+     * Extracts the version information from a page.
+     * @param page_contents The contents of the page.
+     * @param entry The entry describing where the information is located.
+     * @param package_name The name of the app currently being checked.
+     * @return An object containing all the version information.
+     */
+    static VersionResult extract(String page_contents, UpdateSourceEntry entry, String package_name)
+    {
+        VersionResult vr;
+        if (entry.get_extractor() == UpdateSourceEntry.extractor_type.JSON) {
+            vr = _extract_json(page_contents, entry, package_name);
+        }
+        else {
+            vr = _extract_xml(new StringReader(page_contents), entry, package_name);
+        }
+
+        if (entry.get_download_url() != null) {
+            vr.set_download_url(entry.get_download_url());
+        }
+        return vr;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static VersionResult _extract_json(String page_contents,
+                                               UpdateSourceEntry entry,
+                                               String package_name)
+    {
+        VersionResult vr = new VersionResult();
+        try
+        {
+            Object root = new JSONTokener(page_contents).nextValue();
+            String version = _lookup(root, String.format(entry.get_version_path(), package_name));
+            if (version != null) {
+                vr.set_latest_version(version);
+            }
+            if (entry.get_download_path() != null)
+            {
+                String url = _lookup(root, String.format(entry.get_download_path(), package_name));
+                if (url != null) {
+                    vr.set_download_url(url);
+                }
+            }
+        }
+        catch (JSONException e) {
+            Log.v(MainActivity.TAG, "[StructuredExtractor] The page is not a valid JSON document: " + e.getMessage());
+        }
+        return vr;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Follows a path such as <code>a.b[2].c</code> in a JSON document.
+     * @return The value found at the end of the path, or null if it doesn't exist.
+     */
+    private static String _lookup(Object node, String path)
+    {
+        for (String component : path.split("\\."))
+        {
+            String name = component;
+            int bracket = component.indexOf('[');
+            if (bracket >= 0) {
+                name = component.substring(0, bracket);
+            }
+            if (!name.isEmpty())
+            {
+                if (!(node instanceof JSONObject)) {
+                    return null;
+                }
+                node = ((JSONObject) node).opt(name);
+            }
+
+            // Array indexes: name[0][1]...
+            while (bracket >= 0)
+            {
+                int end = component.indexOf(']', bracket);
+                if (end < 0 || !(node instanceof JSONArray)) {
+                    return null;
+                }
+                try {
+                    node = ((JSONArray) node).opt(Integer.parseInt(component.substring(bracket + 1, end)));
+                }
+                catch (NumberFormatException e) {
+                    return null;
+                }
+                bracket = component.indexOf('[', end);
+            }
+
+            if (node == null || node == JSONObject.NULL) {
+                return null;
+            }
+        }
+        return node instanceof JSONObject || node instanceof JSONArray ? null : node.toString();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static VersionResult _extract_xml(Reader in, UpdateSourceEntry entry, String package_name)
+    {
+        VersionResult vr = new VersionResult();
+        String version_element = String.format(entry.get_version_path(), package_name);
+        String download_element = entry.get_download_path() == null ? null :
+                String.format(entry.get_download_path(), package_name);
+
+        try
+        {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(in);
+            int depth = -1; // Depth of the app's <application> element, once found.
+            for (int event = parser.next() ; event != XmlPullParser.END_DOCUMENT ; event = parser.next())
+            {
+                if (event == XmlPullParser.END_TAG && parser.getDepth() == depth) {
+                    break; // Everything there is to know about the app has been read.
+                }
+                if (event != XmlPullParser.START_TAG) {
+                    continue;
+                }
+
+                if (depth < 0)
+                {
+                    if ("application".equals(parser.getName()) &&
+                        package_name.equals(parser.getAttributeValue(null, "id")))
+                    {
+                        depth = parser.getDepth();
+                    }
+                }
+                else if (vr.get_latest_version() == null && version_element.equals(parser.getName())) {
+                    vr.set_latest_version(parser.nextText());
+                }
+                else if (vr.get_download_url() == null && parser.getName().equals(download_element)) {
+                    vr.set_download_url(parser.nextText());
+                }
+
+                if (vr.get_latest_version() != null && (download_element == null || vr.get_download_url() != null)) {
+                    break;
+                }
+            }
+        }
+        catch (XmlPullParserException e) {
+            Log.v(MainActivity.TAG, "[StructuredExtractor] The page is not a valid XML document: " + e.getMessage());
+        }
+        catch (IOException e) {
+            Log.e(MainActivity.TAG, "[StructuredExtractor] Could not read the page.", e);
+        }
+        return vr;
+    }
+}
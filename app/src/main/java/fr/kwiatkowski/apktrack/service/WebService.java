@@ -27,48 +27,80 @@ import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.IBinder;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 import android.util.Pair;
 import de.greenrobot.event.EventBus;
 import de.greenrobot.event.NoSubscriberEvent;
+import fr.kwiatkowski.apktrack.BuildConfig;
 import fr.kwiatkowski.apktrack.MainActivity;
 import fr.kwiatkowski.apktrack.R;
 import fr.kwiatkowski.apktrack.model.InstalledApp;
+import fr.kwiatkowski.apktrack.model.PageValidators;
+import fr.kwiatkowski.apktrack.model.PatternCache;
+import fr.kwiatkowski.apktrack.model.SourceMiss;
 import fr.kwiatkowski.apktrack.model.UpdateSource;
 import fr.kwiatkowski.apktrack.model.UpdateSourceEntry;
+import fr.kwiatkowski.apktrack.model.VersionHistory;
 import fr.kwiatkowski.apktrack.service.message.CreateToastMessage;
 import fr.kwiatkowski.apktrack.service.message.ModelModifiedMessage;
 import fr.kwiatkowski.apktrack.service.message.StickyUpdatedMessage;
-import fr.kwiatkowski.apktrack.service.utils.ProxyHelper;
-import fr.kwiatkowski.apktrack.service.utils.SSLHelper;
+import fr.kwiatkowski.apktrack.service.transport.RecordingTransport;
+import fr.kwiatkowski.apktrack.service.transport.ReplayServer;
+import fr.kwiatkowski.apktrack.service.transport.ReplayTransport;
+import fr.kwiatkowski.apktrack.service.transport.Response;
+import fr.kwiatkowski.apktrack.service.transport.Transport;
+import fr.kwiatkowski.apktrack.service.transport.UrlConnectionTransport;
+import fr.kwiatkowski.apktrack.service.utils.CircuitBreaker;
+import fr.kwiatkowski.apktrack.service.utils.CountingInputStream;
+import fr.kwiatkowski.apktrack.service.utils.Diagnostics;
+import fr.kwiatkowski.apktrack.service.utils.Metrics;
+import fr.kwiatkowski.apktrack.service.utils.RateLimiter;
 import fr.kwiatkowski.apktrack.ui.AppDisplayFragment;
 import fr.kwiatkowski.apktrack.ui.SettingsFragment;
 
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLHandshakeException;
 import java.io.*;
 import java.net.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * This service performs web requests to obtain the latest version of a given app.
- * An IntentService is used instead of relying on EventBus, because it allows
- * intents to be buffered. The "check updates for all apps" button would cause
- * the creation of many simultaneous threads with EventBus.
+ * A Service is used instead of relying on EventBus, because it allows intents to be
+ * buffered. The intents received are handed over to a <code>CheckEngine</code>, which
+ * runs them on a bounded pool of threads while limiting the number of simultaneous
+ * requests sent to each host. The service stops itself once all the jobs are completed.
  */
-public class WebService extends IntentService
+public class WebService extends Service
 {
     public static final String TARGET_APP_PARAMETER = "target_app";
     public static final String SOURCE_PARAMETER = "source";
     public static final String ACTION = "action";
     public static final String ACTION_VERSION_CHECK = "version_check";
     public static final String ACTION_DOWNLOAD_APK = "download_apk";
+    // Debug builds only: checks synthetic apps against the replay server.
+    public static final String ACTION_LOAD_TEST = "load_test";
+    public static final String LOAD_TEST_SIZE_PARAMETER = "load_test_size";
 
     private static final String _nexus_5_user_agent =
             "Mozilla/5.0 (Linux; Android 4.4; Nexus 5 Build/BuildID) AppleWebKit/537.36" +
@@ -83,88 +115,426 @@ public class WebService extends IntentService
         _play_store_not_a_version = Pattern.compile("^([^ ]| \\()*$");
     }
 
+    private static final RateLimiter _rate_limiter = new RateLimiter();
+    private static final CircuitBreaker _circuit_breaker = new CircuitBreaker();
+    private CheckEngine _engine;
+    private Transport _transport;
+    private ScheduledExecutorService _discovery_pool;
+    private final PageCache _page_cache = new PageCache();
+    private final BatchQuery _batches = new BatchQuery(new BatchQuery.Fetcher() {
+        @Override
+        public GetResult fetch(UpdateSource source, String url) {
+            return _fetch_page(source, url, null, null, null);
+        }
+    });
+    private final RepositoryIndexes _indexes = new RepositoryIndexes(new RepositoryIndexes.Fetcher() {
+        @Override
+        public GetResult fetch(UpdateSource source, String url, String etag, String last_modified,
+                               StreamExtractor extractor) {
+            return _fetch_page(source, url, etag, last_modified, extractor);
+        }
+    });
+    private volatile int _last_start_id;
+    // Apps for which a version check is already queued.
+    private final Set<String> _queued_checks =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     // --------------------------------------------------------------------------------------------
 
-    public WebService()
-    {
-        super("WebService");
+    public WebService() {
         EventBus.getDefault().register(this);
     }
 
     // --------------------------------------------------------------------------------------------
 
     @Override
-    protected void onHandleIntent(Intent intent)
+    public void onCreate()
+    {
+        super.onCreate();
+        _engine = new CheckEngine(new Runnable() {
+            @Override
+            public void run()
+            {
+                // The check cycle is over: cached pages may not be reused for the next one.
+                _page_cache.clear();
+                _batches.clear();
+                _indexes.clear();
+                Log.v(MainActivity.TAG, "Check cycle completed. Regular expression cache: " +
+                        PatternCache.get_hits() + " hits, " + PatternCache.get_misses() + " misses.");
+                // Only stops the service if no intents were received in the meantime.
+                stopSelf(_last_start_id);
+            }
+        });
+        _discovery_pool = Executors.newScheduledThreadPool(CheckEngine.POOL_SIZE);
+        _transport = _create_transport();
+        Diagnostics.set_enabled(PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(SettingsFragment.KEY_PREF_DIAGNOSTICS, false));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int start_id)
     {
+        _last_start_id = start_id;
+        if (intent == null)
+        {
+            _stop_if_idle(start_id);
+            return START_NOT_STICKY;
+        }
+
         String package_name = intent.getStringExtra(TARGET_APP_PARAMETER);
-        String request_source = intent.getStringExtra(SOURCE_PARAMETER);
-        String action = intent.getStringExtra(ACTION);
+        if (ACTION_VERSION_CHECK.equals(intent.getStringExtra(ACTION)) &&
+            package_name != null && !_queued_checks.add(package_name))
+        {
+            // The pending check will stop the service once the engine is idle.
+            Log.v(MainActivity.TAG, "A version check is already pending for " + package_name + ".");
+            return START_NOT_STICKY;
+        }
 
-        InstalledApp app = InstalledApp.find_app(package_name);
-        if (!_check_arguments(app, request_source, action)) {
-            return;
+        if (ACTION_LOAD_TEST.equals(intent.getStringExtra(ACTION))) {
+            _start_load_test(intent.getIntExtra(LOAD_TEST_SIZE_PARAMETER, LoadDriver.DEFAULT_SIZE), start_id);
+        }
+        else {
+            _engine.submit(new IntentJob(intent));
         }
+        return START_NOT_STICKY;
+    }
 
-        if (action.equals(ACTION_VERSION_CHECK)) {
-            _perform_version_check(app, request_source);
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Stops the service after an intent which didn't submit any work, unless jobs are still
+     * pending. In that case, the engine's idle callback will stop it.
+     * @param start_id The id of the intent.
+     */
+    private void _stop_if_idle(int start_id)
+    {
+        if (_engine.is_idle()) {
+            stopSelf(start_id);
         }
-        else if (action.equals(ACTION_DOWNLOAD_APK)) {
-            _download_apk(app, request_source);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public void onDestroy()
+    {
+        _engine.shutdown();
+        _discovery_pool.shutdownNow();
+        _transport.close();
+        EventBus.getDefault().unregister(this);
+        super.onDestroy();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null; // Binding is not supported.
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the object which sends the requests. Debug builds may record the responses of
+     * the update sources, or replay them from a local server (see the load testing settings).
+     * Otherwise, requests go to the network through <code>HttpURLConnection</code>.
+     */
+    private Transport _create_transport()
+    {
+        Transport network = new UrlConnectionTransport(this);
+        if (!BuildConfig.DEBUG) {
+            return network;
+        }
+
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(this);
+        String mode = pref.getString(SettingsFragment.KEY_PREF_TRANSPORT, SettingsFragment.TRANSPORT_NETWORK);
+        File dir = getExternalFilesDir(null);
+        File fixtures = new File(dir == null ? getFilesDir() : dir, "fixtures");
+        if (SettingsFragment.TRANSPORT_RECORD.equals(mode))
+        {
+            Log.v(MainActivity.TAG, "Recording the responses in " + fixtures.getAbsolutePath());
+            return new RecordingTransport(network, fixtures);
+        }
+        else if (SettingsFragment.TRANSPORT_REPLAY.equals(mode))
+        {
+            int latency = _parse_int(pref.getString(SettingsFragment.KEY_PREF_REPLAY_LATENCY, "200"));
+            double error_rate = _parse_int(pref.getString(SettingsFragment.KEY_PREF_REPLAY_ERROR_RATE, "0")) / 100.;
+            // Failures are split evenly between 503 errors and dropped connections.
+            ReplayServer server = new ReplayServer(fixtures, latency, latency / 2, error_rate / 2, error_rate / 2);
+            try
+            {
+                server.start();
+                return new ReplayTransport(server);
+            }
+            catch (IOException e) {
+                Log.e(MainActivity.TAG, "[WebService._create_transport] Could not start the replay server.", e);
+            }
+        }
+        return network;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static int _parse_int(String value)
+    {
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Checks synthetic apps against the responses served by the replay server, in order to
+     * measure the throughput of the check pipeline.
+     * @param size The number of synthetic apps to check.
+     * @param start_id The id of the intent which requested the test.
+     */
+    private void _start_load_test(int size, int start_id)
+    {
+        if (!BuildConfig.DEBUG || !(_transport instanceof ReplayTransport))
+        {
+            // Don't flood the real update sources.
+            EventBus.getDefault().post(new CreateToastMessage(getString(R.string.load_test_requires_replay)));
+            _stop_if_idle(start_id);
+            return;
         }
+
+        ReplayServer server = ((ReplayTransport) _transport).get_server();
+        _engine.submit(new LoadDriver(this, _engine, size, server.get_hosts(), new LoadDriver.Checker() {
+            @Override
+            public UpdateSource prepare(InstalledApp app) {
+                return _prepare_check(app);
+            }
+
+            @Override
+            public void check(InstalledApp app) {
+                // Synthetic apps have an update source: their checks are never suspended by discovery.
+                _perform_version_check(new VersionCheck(app, LoadDriver.REQUEST_SOURCE));
+            }
+        }));
     }
 
     // --------------------------------------------------------------------------------------------
 
     /**
-     * Performs a web request to obtain the contents of the source's page related to the app.
+     * Called before the version check of an app is queued.
+     * @param app The app which is going to be checked.
+     * @return The update source which will be queried, or null if there is none.
+     */
+    private UpdateSource _prepare_check(InstalledApp app)
+    {
+        UpdateSource source = UpdateSource.get_source(app);
+        if (source != null) {
+            // Let the app be part of the next batch request, if the source supports them.
+            _batches.register(source, app.get_package_name());
+        }
+        return source;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Obtains the contents of the source's page related to the app.
+     * Pages already downloaded during the current check cycle are served from the cache.
+     * Apps checked against a source supporting batch requests are queried together, and
+     * sources publishing a repository index are answered from its local copy.
      * @param source The <code>UpdateSource</code> used by the app. It contains the template of
      *               the URL to query.
      * @param app The app for which the page should be requested.
      * @return An object which represents the contents of the web request, and contains the raw
      * HTML data in case of success.
      */
-    private GetResult get_page(UpdateSource source, InstalledApp app)
+    private GetResult get_page(final UpdateSource source, InstalledApp app)
     {
-        String url = String.format(source.get_url(), app.get_package_name());
+        Metrics.increment("page.requests/" + source.get_name());
+
+        // Repositories publishing an index are only queried once per cycle.
+        if (source.get_index_url() != null)
+        {
+            GetResult gr = _indexes.get(source, app.get_package_name());
+            if (gr != null) {
+                return gr;
+            }
+        }
+
+        // Sources supporting it are queried for several apps at once.
+        if (source.get_batch_url() != null)
+        {
+            GetResult gr = _batches.get(source, app.get_package_name());
+            if (gr != null) {
+                return gr;
+            }
+        }
+
+        final String url = String.format(source.get_url(), app.get_package_name());
+
+        // Send the validators obtained during the last check to allow a 304 answer.
+        PageValidators v = PageValidators.find_validators(app.get_package_name(), source.get_name());
+        final String etag = v == null ? null : v.get_etag();
+        final String last_modified = v == null ? null : v.get_last_modified();
+
+        // Requests with different validators may not share their result.
+        String key = url + "\n" + etag + "\n" + last_modified;
+
+        // Pages dedicated to a single app are scanned while they are downloaded, which allows
+        // the transfer to stop as soon as the version has been found. Pages shared between
+        // apps (i.e. repository indexes) are kept whole so that every app can be looked up.
+        UpdateSourceEntry entry = source.get_entry(app.get_package_name());
+        final StreamExtractor extractor;
+        if (entry != null && entry.get_extractor() == UpdateSourceEntry.extractor_type.REGEXP &&
+            source.get_url().contains("%1$s"))
+        {
+            extractor = new PageExtractor(source.get_name(), entry, app.get_package_name(),
+                                          _get_not_found_pattern(source));
+            key += "\n" + source.get_name(); // The result only makes sense for this source.
+        }
+        else {
+            extractor = null;
+        }
 
+        return _page_cache.get(key, new Callable<GetResult>() {
+            @Override
+            public GetResult call() {
+                Metrics.increment("page.cache_misses/" + source.get_name());
+                return _fetch_page(source, url, etag, last_modified, extractor);
+            }
+        });
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Performs a web request to obtain the contents of a page.
+     * @param source The <code>UpdateSource</code> which is being queried.
+     * @param url The URL of the page.
+     * @param etag The ETag returned by the last successful request (may be null).
+     * @param last_modified The Last-Modified date returned by the last successful request (may
+     *                      be null).
+     * @param extractor If not null, the page is scanned by this object while it is downloaded
+     *                  instead of being returned.
+     * @return An object which represents the contents of the web request, and contains the raw
+     * HTML data (or the extracted version information) in case of success.
+     */
+    private GetResult _fetch_page(UpdateSource source,
+                                  String url,
+                                  String etag,
+                                  String last_modified,
+                                  StreamExtractor extractor)
+    {
         Log.v(MainActivity.TAG, "Requesting " + url);
         InputStream conn = null;
-        HttpURLConnection huc = null;
+        Response response = null;
+        String host = null;
+        boolean keep_alive = false;
+        boolean allowed = false;        // Whether the circuit breaker let the request through,
+        boolean source_failed = false;  // in which case it must be told about the outcome.
+        String retry_after = null;
+        int code = -1;
+        long start = 0;
         try
         {
             URL target = new URL(url);
-            // Set the proxy.
-            huc = (HttpURLConnection) target.openConnection(ProxyHelper.get_proxy(this));
+            // Respect the maximum number of simultaneous requests for this host.
+            _engine.acquire_host(target.getHost());
+            host = target.getHost();
 
-            // Authenticate ApkTrack's servers against the bundled certificate.
-            if ("https".equals(target.getProtocol()) &&
-                "apktrack.kwiatkowski.fr".equals(target.getHost()) &&
-                huc instanceof HttpsURLConnection)
+            // Don't wait for timeouts from sources which are known to be unavailable.
+            if (!_circuit_breaker.allow_request(source))
             {
-                ((HttpsURLConnection) huc).setSSLSocketFactory(
-                        SSLHelper.get_ssl_socket_factory(WebService.this));
+                Log.v(MainActivity.TAG, source.get_name() + " is unavailable. Skipping " + url);
+                return new GetResult(GetResult.status_code.NETWORK_ERROR);
             }
+            allowed = true;
+            start = System.nanoTime();
+            Metrics.increment("http.requests/" + source.get_name());
 
+            Map<String, String> headers = new LinkedHashMap<String, String>();
             String user_agent = System.getProperty("http.agent");
             if (user_agent == null) { // Some devices seem to return null here (see issue #8).
                 user_agent = _nexus_5_user_agent;
             }
-            huc.setRequestProperty("User-Agent", user_agent);
+            headers.put("User-Agent", user_agent);
+            // Setting this header disables the transparent decompression performed by some
+            // HttpURLConnection implementations: the response is decoded in _decode_stream.
+            headers.put("Accept-Encoding", "gzip, deflate");
+
+            // Conditional request: the page doesn't need to be sent again if it hasn't changed.
+            if (etag != null) {
+                headers.put("If-None-Match", etag);
+            }
+            if (last_modified != null) {
+                headers.put("If-Modified-Since", last_modified);
+            }
 
-            huc.setRequestMethod("GET");
-            huc.setReadTimeout(10000); // Timeout : 10s
-            huc.connect();
-            conn = huc.getInputStream();
-            String page_contents = _read_all(conn, 2048);
+            response = _transport.open(target, headers);
+            Metrics.record_duration("http.connect_us/" + source.get_name(), System.nanoTime() - start);
+            code = response.get_code();
+            Metrics.record_duration("http.ttfb_us/" + source.get_name(), System.nanoTime() - start);
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED)
+            {
+                Log.v(MainActivity.TAG, url + " has not been modified since the last check.");
+                keep_alive = _drain(response.get_body());
+                return new GetResult(GetResult.status_code.NOT_MODIFIED);
+            }
+            // The source is throttling us or is having trouble: this is a temporary error.
+            if (code == 429 || code >= 500)
+            {
+                Log.v(MainActivity.TAG, url + " returned an HTTP " + code + " error.");
+                source_failed = true;
+                retry_after = response.get_header("Retry-After");
+                keep_alive = _drain(response.get_error_body());
+                return new GetResult(GetResult.status_code.NETWORK_ERROR);
+            }
 
-            // Fix update source quirks
-            _fix_update_source_response(source, page_contents);
+            CountingInputStream received = new CountingInputStream(response.get_body());
+            conn = received;
+            // Never read more than the maximum size allowed by the source.
+            CountingInputStream decoded = new CountingInputStream(
+                    _decode_stream(received, response.get_header("Content-Encoding")),
+                    source.get_max_body_size());
+            conn = decoded;
 
-            return new GetResult(page_contents);
+            GetResult res;
+            if (extractor != null)
+            {
+                res = new GetResult(extractor.extract(new InputStreamReader(conn, "UTF-8")));
+                // If the page wasn't read entirely, the connection cannot be reused.
+                keep_alive = !extractor.is_stopped_early() && !decoded.is_limit_reached();
+            }
+            else
+            {
+                String page_contents = _read_all(conn, 2048);
+                keep_alive = !decoded.is_limit_reached();
+
+                // Fix update source quirks
+                _fix_update_source_response(source, page_contents);
+                res = new GetResult(page_contents);
+            }
+
+            Log.v(MainActivity.TAG, url + ": " + received.get_count() + " bytes received, " +
+                    decoded.get_count() + " bytes decoded.");
+            if (decoded.is_limit_reached()) {
+                Log.w(MainActivity.TAG, url + " exceeds the maximum size allowed and was truncated.");
+            }
+
+            res.set_validators(response.get_header("ETag"), response.get_header("Last-Modified"));
+            res.set_transfer_sizes(received.get_count(), decoded.get_count());
+            Metrics.add("http.bytes_received/" + source.get_name(), received.get_count());
+            Metrics.add("http.bytes_decoded/" + source.get_name(), decoded.get_count());
+            return res;
         }
         catch (FileNotFoundException e)
         {
             Log.v(MainActivity.TAG, "404 error while getting " + url + "!");
+            if (conn == null) { // Actual 404: discard the error page.
+                keep_alive = _drain(response.get_error_body());
+            }
             return new GetResult(GetResult.status_code.ERROR_404);
         }
         catch (UnknownHostException e)
@@ -173,11 +543,13 @@ public class WebService extends IntentService
                 Log.v(MainActivity.TAG, "Could not resolve " + new URL(url).getHost() + "!");
             }
             catch (MalformedURLException ignored) {}
+            source_failed = true;
             return new GetResult(GetResult.status_code.NETWORK_ERROR);
         }
         catch (ConnectException | SocketTimeoutException e)
         {
             Log.v(MainActivity.TAG, "Could not connect to the UpdateSource (" + e.getMessage() + ").");
+            source_failed = true;
             return new GetResult(GetResult.status_code.NETWORK_ERROR);
         }
         catch (SSLHandshakeException e)
@@ -185,20 +557,42 @@ public class WebService extends IntentService
             Log.w(MainActivity.TAG, "Could not establish a secure connexion.");
             return new GetResult(GetResult.status_code.NETWORK_ERROR);
         }
+        catch (InterruptedException e)
+        {
+            Log.v(MainActivity.TAG, "Interrupted while waiting to query " + url + ".");
+            return new GetResult(GetResult.status_code.NETWORK_ERROR);
+        }
         catch (Exception e)
         {
             Log.e(MainActivity.TAG, url + " could not be retrieved! (" + e.getMessage() + ")", e);
+            // Client errors (4xx) mean that the source is up, even though it didn't like the request.
+            source_failed = e instanceof IOException && (code < 400 || code >= 500);
             return new GetResult(e);
         }
         finally
         {
+            if (allowed)
+            {
+                Metrics.record_duration("http.total_us/" + source.get_name(), System.nanoTime() - start);
+                if (source_failed)
+                {
+                    Metrics.increment("http.failures/" + source.get_name());
+                    _circuit_breaker.on_failure(source, retry_after);
+                }
+                else {
+                    _circuit_breaker.on_success(source);
+                }
+            }
             if (conn != null) {
                 try {
                     conn.close();
                 } catch (IOException ignored) {}
             }
-            if (huc != null) {
-                huc.disconnect();
+            if (response != null) {
+                response.close(keep_alive);
+            }
+            if (host != null) {
+                _engine.release_host(host);
             }
         }
 
@@ -210,30 +604,47 @@ public class WebService extends IntentService
      * Extracts all the relevant data from a web page.
      * The <code>UpdateSourceEntry</code> object contains a list of regular expressions to apply
      * to the web page contents in order to obtain update information (latest version, APK url,
-     * changelog, ...).
+     * changelog, ...). Entries describing JSON or XML documents are handed over to the
+     * <code>StructuredExtractor</code> instead.
      * @param page_contents The contents of the web page to scan.
+     * @param source The update source which returned the page.
      * @param use The object containing the regular expressions to apply.
      * @param package_name The name of the app currently being checked.
      * @return An object containing all the version information.
      */
     private static VersionResult apply_regexps(String page_contents,
+                                               UpdateSource source,
                                                UpdateSourceEntry use,
                                                String package_name)
     {
-        VersionResult vr = new VersionResult();
+        VersionResult vr;
+        long start = System.nanoTime();
+        if (use.get_extractor() != UpdateSourceEntry.extractor_type.REGEXP)
+        {
+            vr = StructuredExtractor.extract(page_contents, use, package_name);
+            Metrics.record_duration("extract.time_us/" + source.get_name(), System.nanoTime() - start);
+            if (vr.get_latest_version() == null) {
+                Metrics.increment("extract.misses/" + source.get_name());
+            }
+            Log.v(MainActivity.TAG, String.format("Obtained version: %s - Download URL: %s",
+                    vr.get_latest_version(), vr.get_download_url()));
+            return vr;
+        }
 
+        vr = new VersionResult();
         if (use.get_version_regexp() != null)
         {
-            Matcher m = Pattern.compile(String.format(use.get_version_regexp(),
-                                                      package_name))
-                    .matcher(page_contents);
+            Matcher m = use.get_version_pattern(package_name).matcher(page_contents);
             if (m.find()) {
                 vr.set_latest_version(m.group(1));
             }
             else
             {
                 Log.v(MainActivity.TAG, "The regular expression could not find a version number.");
-                Log.d(MainActivity.TAG, page_contents); // Dump the page contents to debug the problem.
+                Metrics.increment("extract.misses/" + source.get_name());
+                // Keep an excerpt of the page to debug the problem.
+                Diagnostics.record(source.get_name(), use.get_applicable_packages(), package_name,
+                                   "version", page_contents);
             }
         }
 
@@ -242,21 +653,22 @@ public class WebService extends IntentService
         }
         else if (use.get_download_regexp() != null)
         {
-            Matcher m = Pattern.compile(String.format(use.get_download_regexp(),
-                                                      package_name))
-                    .matcher(page_contents);
+            Matcher m = use.get_download_pattern(package_name).matcher(page_contents);
             if (m.find()) {
                 vr.set_download_url(m.group(1));
             }
             else
             {
                 Log.v(MainActivity.TAG, "The regular expression could not find a download URL.");
-                Log.d(MainActivity.TAG, page_contents); // Dump the page contents to debug the problem.
+                Diagnostics.record(source.get_name(), use.get_applicable_packages(), package_name,
+                                   "download URL", page_contents);
             }
         }
 
         // TODO: Changelog
 
+        Metrics.record_duration("extract.time_us/" + source.get_name(), System.nanoTime() - start);
+
         Log.v(MainActivity.TAG, String.format("Obtained version: %s - Download URL: %s",
                 vr.get_latest_version(), vr.get_download_url()));
         return vr;
@@ -264,6 +676,72 @@ public class WebService extends IntentService
 
     // --------------------------------------------------------------------------------------------
 
+    /**
+     * Reads and discards what remains of a response body, so that the underlying connection
+     * may be reused for another request.
+     * @param is The stream to drain (may be null).
+     * @return Whether the end of the stream was reached.
+     */
+    private static boolean _drain(InputStream is)
+    {
+        if (is == null) {
+            return true;
+        }
+        byte[] buffer = new byte[2048];
+        try
+        {
+            try
+            {
+                while (is.read(buffer) >= 0);
+                return true;
+            }
+            finally {
+                is.close();
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Wraps the body of a response into a stream which decodes it on the fly.
+     * @param is The raw response body.
+     * @param content_encoding The value of the Content-Encoding header (may be null).
+     * @return A stream returning the decoded body.
+     * @throws IOException If the gzip header could not be read.
+     */
+    private static InputStream _decode_stream(InputStream is, String content_encoding) throws IOException
+    {
+        if (content_encoding == null) {
+            return is;
+        }
+        switch (content_encoding.trim().toLowerCase())
+        {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(is, 2048);
+            case "deflate":
+                // The RFC mandates a zlib wrapper, but some servers send raw deflate data.
+                // Look at the first two bytes to find out which one was received.
+                PushbackInputStream pis = new PushbackInputStream(is, 2);
+                byte[] header = new byte[2];
+                int read = pis.read(header);
+                if (read > 0) {
+                    pis.unread(header, 0, read);
+                }
+                boolean zlib = read == 2 && (header[0] & 0x0F) == 8 &&
+                        (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+                return new InflaterInputStream(pis, new Inflater(!zlib), 2048);
+            default: // "identity" or unsupported encodings: the page is read as-is.
+                return is;
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
     /**
      * Reads the contents of an InputStream and returns it as a String.
      * @param is The InputStream to read from.
@@ -307,23 +785,31 @@ public class WebService extends IntentService
     private static void _fix_update_source_response(UpdateSource source, String page_contents)
         throws java.io.IOException
     {
-        Matcher m;
+        Pattern not_found = _get_not_found_pattern(source);
+        if (not_found != null && not_found.matcher(page_contents).find()) {
+            throw new FileNotFoundException();
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the pattern indicating that an update source which doesn't answer with a 404
+     * doesn't know about an app.
+     * @param source The source which is currently used.
+     * @return The pattern to look for, or <code>null</code> if the source behaves correctly.
+     */
+    private static Pattern _get_not_found_pattern(UpdateSource source)
+    {
         // F-Droid doesn't return a 404 for applications it doesn't have.
-        if ("F-Droid".equals(source.get_name()))
-        {
-            m = _fdroid_not_found.matcher(page_contents);
-            if (m.find()) {
-                throw new FileNotFoundException();
-            }
+        if ("F-Droid".equals(source.get_name())) {
+            return _fdroid_not_found;
         }
         // Appbrain fails to return an error when it doesn't have a version number for some apps (see issue #74).
-        else if ("AppBrain".equals(source.get_name()))
-        {
-            m = _appbrain_not_found.matcher(page_contents);
-            if (m.find()) {
-                throw new FileNotFoundException();
-            }
+        else if ("AppBrain".equals(source.get_name())) {
+            return _appbrain_not_found;
         }
+        return null;
     }
 
     // --------------------------------------------------------------------------------------------
@@ -440,15 +926,45 @@ public class WebService extends IntentService
     // --------------------------------------------------------------------------------------------
 
     /**
-     * Performs the version check.
+     * Performs the version check, or resumes it.
      * The app's update source is queried (and detected if none is specified), then the regular
      * expressions of the update source are applied and the app is updated with the new information.
-     * @param app The app for which a version check has to be performed.
-     * @param request_source The source of the request (may be a background check or a user click).
-     *                       Depending on this, a toast may be shown to display an error message.
+     * @param check The version check to perform.
+     * @return The number of milliseconds after which the check has to be resumed, or 0 if it is
+     * complete. Checks are suspended during update source discovery, while the next source
+     * can't be queried yet because of its request delay.
      */
-    private void _perform_version_check(InstalledApp app, String request_source)
+    private long _perform_version_check(VersionCheck check)
     {
+        // Checks resumed in the middle of discovery skip the first request.
+        if (!check.discovering_sequentially && !_start_version_check(check)) {
+            return 0;
+        }
+        if (check.discovering_sequentially)
+        {
+            long delay = _discover_sequentially(check);
+            if (delay > 0) {
+                return delay;
+            }
+        }
+        if (check.discovering) {
+            Metrics.record_count("discovery.sources_tried", check.sources_tried);
+        }
+        _complete_version_check(check);
+        return 0;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Queries the update source of the app. If the app isn't found there and no update source
+     * was chosen by the user, discovery begins.
+     * @param check The version check being performed.
+     * @return False if there is no update source for the app, in which case the check is over.
+     */
+    private boolean _start_version_check(VersionCheck check)
+    {
+        InstalledApp app = check.app;
         Log.v(MainActivity.TAG, "Launching version check for " + app.get_display_name());
 
         UpdateSource source = UpdateSource.get_source(app);
@@ -456,33 +972,126 @@ public class WebService extends IntentService
         {
             Log.v(MainActivity.TAG, "Could not find an update source for " + app.get_display_name());
             app.set_currently_checking(false);
-            return;
+            return false;
         }
 
-        GetResult gr = get_page(source, app);
-        if (gr.get_status() != GetResult.status_code.SUCCESS)
+        GetResult gr;
+        boolean discovering = app.get_update_source() == null;
+        check.discovering = discovering;
+        if (discovering) {
+            Metrics.increment("discovery.apps");
+        }
+        if (discovering && SourceMiss.is_known_missing(app.get_package_name(), source.get_name()))
         {
-            // UpdateSource discovery: if no update source was chosen by the user,
-            if (gr.get_status() == GetResult.status_code.ERROR_404 && app.get_update_source() == null)
+            Log.v(MainActivity.TAG, source.get_name() + " is known not to have " + app.get_package_name() + ".");
+            Metrics.increment("discovery.known_misses");
+            gr = new GetResult(GetResult.status_code.ERROR_404);
+        }
+        else
+        {
+            if (discovering) {
+                ++check.sources_tried;
+            }
+            gr = get_page(source, app);
+            if (discovering && gr.get_status() == GetResult.status_code.ERROR_404) {
+                SourceMiss.record(app.get_package_name(), source.get_name());
+            }
+        }
+
+        // UpdateSource discovery: if no update source was chosen by the user,
+        if (gr.get_status() == GetResult.status_code.ERROR_404 && discovering &&
+            PreferenceManager.getDefaultSharedPreferences(this).getBoolean(SettingsFragment.KEY_PREF_PARALLEL_DISCOVERY, false))
+        {
+            Pair<UpdateSource, GetResult> found = _discover_in_parallel(check, source);
+            source = found.first;
+            gr = found.second;
+        }
+        else if (gr.get_status() == GetResult.status_code.ERROR_404 && discovering)
+        {
+            // The remaining sources are tried one after the other.
+            check.discovering_sequentially = true;
+            source = UpdateSource.get_next_source(app, source);
+        }
+
+        check.source = source;
+        check.result = gr;
+        return true;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Tries the remaining update sources of an app one after the other, until one of them has
+     * information about it. When a source can't be queried yet because of its request delay,
+     * the check is suspended instead of keeping the worker thread asleep.
+     * @param check The version check being performed.
+     * @return The number of milliseconds after which the check has to be resumed, or 0 if
+     * discovery is over.
+     */
+    private long _discover_sequentially(VersionCheck check)
+    {
+        InstalledApp app = check.app;
+        while (check.source != null)
+        {
+            UpdateSource source = check.source;
+            if (!check.request_reserved)
             {
-                source = UpdateSource.get_next_source(app, source);
-                while (source != null)
+                // Don't ask sources which recently said they didn't have the app.
+                if (SourceMiss.is_known_missing(app.get_package_name(), source.get_name()))
                 {
-                    gr = get_page(source, app);
-                    if (gr.get_status() == GetResult.status_code.SUCCESS) {
-                        break;
-                    }
-                    source = UpdateSource.get_next_source(app, source);
+                    Log.v(MainActivity.TAG, source.get_name() + " is known not to have " + app.get_package_name() + ".");
+                    Metrics.increment("discovery.known_misses");
+                    check.source = UpdateSource.get_next_source(app, source);
+                    continue;
                 }
+
+                long delay = _rate_limiter.reserve(source);
+                if (delay > 0)
+                {
+                    check.request_reserved = true;
+                    return delay;
+                }
+            }
+            check.request_reserved = false;
+
+            ++check.sources_tried;
+            check.result = get_page(source, app);
+            if (check.result.is_success()) {
+                break;
             }
+            if (check.result.get_status() == GetResult.status_code.ERROR_404) {
+                SourceMiss.record(app.get_package_name(), source.get_name());
+            }
+            check.source = UpdateSource.get_next_source(app, source);
+        }
+        check.discovering_sequentially = false;
+        return 0;
+    }
+
+    // --------------------------------------------------------------------------------------------
 
+    /**
+     * Updates the app with the information obtained from its update source (or with the error
+     * which occurred), then saves it.
+     * @param check The version check being performed.
+     */
+    private void _complete_version_check(VersionCheck check)
+    {
+        InstalledApp app = check.app;
+        UpdateSource source = check.source;
+        GetResult gr = check.result;
+        // The source of the request (may be a background check or a user click). Depending on
+        // this, a toast may be shown to display an error message.
+        String request_source = check.request_source;
+
+        if (!gr.is_success())
+        {
             // No suitable update source found, or the specified update source has no information.
             if (source == null || gr.get_status() == GetResult.status_code.ERROR_404) {
                 app.set_error_message(getResources().getString(R.string.no_data_found));
             }
             // Network errors don't cause the app to give up on checks.
-            else if (gr.get_status() != GetResult.status_code.SUCCESS &&
-                    gr.get_status() != GetResult.status_code.NETWORK_ERROR)
+            else if (!gr.is_success() && gr.get_status() != GetResult.status_code.NETWORK_ERROR)
             {
                 app.set_last_check_error(true);
                 if (gr.get_exception() != null) {
@@ -498,7 +1107,18 @@ public class WebService extends IntentService
             }
         }
 
-        if (source != null && gr.get_status() == GetResult.status_code.SUCCESS)
+        if (source != null && gr.get_status() == GetResult.status_code.NOT_MODIFIED)
+        {
+            // The page is the one which was parsed during the last successful check: nothing
+            // to extract, the stored information is still accurate.
+            app.set_last_check_error(false);
+            app.set_last_check_date(new Date());
+            app.schedule_next_check();
+            if (app.get_update_source() == null) {
+                app.set_update_source(source.get_name());
+            }
+        }
+        else if (source != null && gr.get_status() == GetResult.status_code.SUCCESS)
         { // Page obtained successfully. Extract the relevant information.
             UpdateSourceEntry entry = source.get_entry(app.get_package_name());
 
@@ -509,18 +1129,24 @@ public class WebService extends IntentService
                 return;
             }
 
-            // Get the latest version.
-            VersionResult vr = apply_regexps(gr.get_page_contents(), entry, app.get_package_name());
+            // Get the latest version, unless it was extracted during the download.
+            VersionResult vr = gr.get_version_result();
+            if (vr == null) {
+                vr = apply_regexps(gr.get_page_contents(), source, entry, app.get_package_name());
+            }
 
             if (vr.get_latest_version() == null) // Regexp did not match anything.
             {
                 app.set_error_message(getResources().getString(R.string.regexp_no_match));
+                // Make sure the page is downloaded and parsed again next time.
+                PageValidators.clear(app.get_package_name(), source.get_name());
             }
             // If we didn't know about this version, save the new information.
             else if (app.get_latest_version() == null || !app.get_latest_version().equals(vr.get_latest_version()))
             {
                 app.set_last_check_error(false);
                 app.set_latest_version(vr.get_latest_version());
+                VersionHistory.record(app.get_package_name(), vr.get_latest_version());
                 if (app.is_update_available())
                 {
                     app.set_download_url(vr.get_download_url());
@@ -542,6 +1168,12 @@ public class WebService extends IntentService
             }
 
             app.set_last_check_date(new Date());
+            if (vr.get_latest_version() != null)
+            {
+                PageValidators.store(app.get_package_name(), source.get_name(),
+                                     gr.get_etag(), gr.get_last_modified());
+                app.schedule_next_check();
+            }
             // Set as default update source if none existed.
             if (app.get_update_source() == null && !app.is_last_ckeck_error()) {
                 app.set_update_source(source.get_name());
@@ -566,15 +1198,81 @@ public class WebService extends IntentService
             app.save();
             EventBusHelper.post_sticky(ModelModifiedMessage.event_type.APP_UPDATED, app.get_package_name());
         }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Queries all the remaining applicable update sources of an app at the same time. The
+     * answers are examined in the order of sources.json, and the requests to the sources which
+     * come after the first successful one are cancelled.
+     * @param check The version check of the app whose update source is being looked for.
+     * @param after The last update source which was tried.
+     * @return The first source which had information about the app (or null if there is none),
+     * and the result of the last request examined.
+     */
+    private Pair<UpdateSource, GetResult> _discover_in_parallel(VersionCheck check, UpdateSource after)
+    {
+        final InstalledApp app = check.app;
+        List<UpdateSource> candidates = new ArrayList<UpdateSource>();
+        for (UpdateSource s = UpdateSource.get_next_source(app, after) ; s != null ;
+             s = UpdateSource.get_next_source(app, s))
+        {
+            // Don't ask sources which recently said they didn't have the app.
+            if (!SourceMiss.is_known_missing(app.get_package_name(), s.get_name())) {
+                candidates.add(s);
+            }
+            else {
+                Metrics.increment("discovery.known_misses");
+            }
+        }
+        check.sources_tried += candidates.size();
 
-        // Sleep to avoid flooding the update source.
+        List<Future<GetResult>> requests = new ArrayList<Future<GetResult>>();
+        for (final UpdateSource s : candidates)
+        {
+            // Every source keeps its own rate limit: requests are scheduled accordingly.
+            requests.add(_discovery_pool.schedule(new Callable<GetResult>() {
+                @Override
+                public GetResult call() {
+                    return get_page(s, app);
+                }
+            }, _rate_limiter.reserve(s), TimeUnit.MILLISECONDS));
+        }
+
+        GetResult last = new GetResult(GetResult.status_code.ERROR_404);
         try
         {
-            if (source != null) {
-                Thread.sleep(source.get_request_delay());
+            for (int i = 0 ; i < requests.size() ; ++i)
+            {
+                try {
+                    last = requests.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    last = new GetResult(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                }
+
+                if (last.is_success()) {
+                    return new Pair<UpdateSource, GetResult>(candidates.get(i), last);
+                }
+                if (last.get_status() == GetResult.status_code.ERROR_404) {
+                    SourceMiss.record(app.get_package_name(), candidates.get(i).get_name());
+                }
             }
         }
-        catch (InterruptedException ignored) {}
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            last = new GetResult(GetResult.status_code.NETWORK_ERROR);
+        }
+        finally
+        {
+            // The answers of lower-priority sources are not needed anymore.
+            for (Future<GetResult> f : requests) {
+                f.cancel(true);
+            }
+        }
+        return new Pair<UpdateSource, GetResult>(null, last);
     }
 
     // --------------------------------------------------------------------------------------------
@@ -687,6 +1385,104 @@ public class WebService extends IntentService
         return false;
     }
 
+    // --------------------------------------------------------------------------------------------
+    // Inner class IntentJob
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Wraps an intent received by the service so that it can be processed by the
+     * <code>CheckEngine</code>.
+     */
+    private class IntentJob implements CheckEngine.Job
+    {
+        IntentJob(Intent intent)
+        {
+            _package_name = intent.getStringExtra(TARGET_APP_PARAMETER);
+            _request_source = intent.getStringExtra(SOURCE_PARAMETER);
+            _action = intent.getStringExtra(ACTION);
+        }
+
+        @Override
+        public String get_host()
+        {
+            _app = InstalledApp.find_app(_package_name);
+            if (_app == null || !ACTION_VERSION_CHECK.equals(_action)) {
+                return null;
+            }
+            _source = _prepare_check(_app);
+            return _source == null ? null : _source.get_host();
+        }
+
+        @Override
+        public long reserve() {
+            return _rate_limiter.reserve(_source);
+        }
+
+        @Override
+        public long run()
+        {
+            long delay = 0;
+            try
+            {
+                if (_check != null) { // Resume a suspended check.
+                    delay = _perform_version_check(_check);
+                }
+                else if (!_check_arguments(_app, _request_source, _action)) {
+                    return 0;
+                }
+                else if (_action.equals(ACTION_VERSION_CHECK))
+                {
+                    _check = new VersionCheck(_app, _request_source);
+                    delay = _perform_version_check(_check);
+                }
+                else if (_action.equals(ACTION_DOWNLOAD_APK)) {
+                    _download_apk(_app, _request_source);
+                }
+                return delay;
+            }
+            finally
+            {
+                // Suspended checks are still pending.
+                if (delay == 0 && ACTION_VERSION_CHECK.equals(_action) && _package_name != null) {
+                    _queued_checks.remove(_package_name);
+                }
+            }
+        }
+
+        private final String    _package_name;
+        private final String    _request_source;
+        private final String    _action;
+        private InstalledApp    _app;
+        private UpdateSource    _source;
+        private VersionCheck    _check = null;
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class VersionCheck
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * The progress of a version check, kept while the check is suspended during update source
+     * discovery.
+     */
+    private static class VersionCheck
+    {
+        VersionCheck(InstalledApp app, String request_source)
+        {
+            this.app = app;
+            this.request_source = request_source;
+        }
+
+        final InstalledApp  app;
+        final String        request_source;
+        UpdateSource        source = null;  // The source being queried.
+        GetResult           result = null;  // The result of the last request.
+        boolean             discovering = false;
+        int                 sources_tried = 0; // Number of sources queried during discovery.
+        boolean             discovering_sequentially = false;
+        boolean             request_reserved = false; // The rate limiter allowed a request to source.
+    }
+
     // --------------------------------------------------------------------------------------------
     // Inner class MessageAccessor
     // --------------------------------------------------------------------------------------------
@@ -711,10 +1507,15 @@ public class WebService extends IntentService
  */
 class GetResult
 {
-    public enum status_code { SUCCESS, NETWORK_ERROR, ERROR_404, UNKNOWN_ERROR }
+    public enum status_code { SUCCESS, NOT_MODIFIED, NETWORK_ERROR, ERROR_404, UNKNOWN_ERROR }
     private status_code _status;
     private String _page_contents;
     private Exception _exception = null;
+    private String _etag = null;
+    private String _last_modified = null;
+    private long _bytes_received = 0;
+    private long _bytes_decoded = 0;
+    private VersionResult _version_result = null;
 
     // --------------------------------------------------------------------------------------------
 
@@ -734,6 +1535,15 @@ class GetResult
 
     // --------------------------------------------------------------------------------------------
 
+    public GetResult(VersionResult vr)
+    {
+        _status = status_code.SUCCESS;
+        _page_contents = null;
+        _version_result = vr;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
     public GetResult(Exception e)
     {
         _status = status_code.UNKNOWN_ERROR;
@@ -742,9 +1552,45 @@ class GetResult
 
     // --------------------------------------------------------------------------------------------
 
+    public void set_validators(String etag, String last_modified)
+    {
+        _etag = etag;
+        _last_modified = last_modified;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Records the size of the response body.
+     * @param received The number of bytes received from the network.
+     * @param decoded The number of bytes after decompression.
+     */
+    public void set_transfer_sizes(long received, long decoded)
+    {
+        _bytes_received = received;
+        _bytes_decoded = decoded;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return Whether the update source answered the request (even if it was only to say that
+     * the page didn't change).
+     */
+    public boolean is_success() {
+        return _status == status_code.SUCCESS || _status == status_code.NOT_MODIFIED;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
     public status_code  get_status()        { return _status; }
     public String       get_page_contents() { return _page_contents; }
     public Exception    get_exception()     { return _exception; }
+    public String       get_etag()          { return _etag; }
+    public String       get_last_modified() { return _last_modified; }
+    public long         get_bytes_received(){ return _bytes_received; }
+    public long         get_bytes_decoded() { return _bytes_decoded; }
+    public VersionResult get_version_result() { return _version_result; }
 }
 
 // --------------------------------------------------------------------------------------------
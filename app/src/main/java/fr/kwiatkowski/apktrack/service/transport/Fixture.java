@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.transport;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A response recorded by the <code>RecordingTransport</code>.
+ *
+ * Each fixture is made of two files named after a hash of the URL: <code>[key].json</code>,
+ * which contains the URL, status code and headers, and <code>[key].body</code>, which contains
+ * the body exactly as it was received.
+ */
+class Fixture
+{
+    static final String METADATA_EXTENSION = ".json";
+    static final String BODY_EXTENSION = ".body";
+
+    Fixture(String url, int code, Map<String, List<String>> headers, File body)
+    {
+        _url = url;
+        _code = code;
+        _headers = headers;
+        _body = body;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @param url The URL of a page.
+     * @return The name under which the page's fixture is stored.
+     */
+    static String key(String url)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format(Locale.US, "%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // Both are guaranteed to be available.
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the metadata of the fixture next to its body.
+     * @throws IOException If the file could not be written.
+     */
+    void save_metadata() throws IOException
+    {
+        try
+        {
+            JSONObject headers = new JSONObject();
+            for (Map.Entry<String, List<String>> h : _headers.entrySet()) {
+                headers.put(h.getKey(), new JSONArray(h.getValue()));
+            }
+            JSONObject root = new JSONObject();
+            root.put("url", _url);
+            root.put("code", _code);
+            root.put("headers", headers);
+
+            File metadata = new File(_body.getParentFile(), key(_url) + METADATA_EXTENSION);
+            Writer w = new OutputStreamWriter(new FileOutputStream(metadata), "UTF-8");
+            try {
+                w.write(root.toString(2));
+            }
+            finally {
+                w.close();
+            }
+        }
+        catch (JSONException e) {
+            throw new IOException("Could not serialize the fixture of " + _url, e);
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the metadata of a fixture.
+     * @param metadata The <code>.json</code> file of the fixture.
+     * @return The fixture described by the file.
+     * @throws IOException If the file could not be read or is invalid.
+     */
+    static Fixture load(File metadata) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        Reader r = new InputStreamReader(new FileInputStream(metadata), "UTF-8");
+        try
+        {
+            char[] buffer = new char[2048];
+            int read;
+            while ((read = r.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+        }
+        finally {
+            r.close();
+        }
+
+        try
+        {
+            JSONObject root = new JSONObject(sb.toString());
+            Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+            JSONObject h = root.getJSONObject("headers");
+            Iterator<String> it = h.keys();
+            while (it.hasNext())
+            {
+                String name = it.next();
+                JSONArray values = h.getJSONArray(name);
+                List<String> l = new ArrayList<String>(values.length());
+                for (int i = 0 ; i < values.length() ; ++i) {
+                    l.add(values.getString(i));
+                }
+                headers.put(name, l);
+            }
+            String url = root.getString("url");
+            File body = new File(metadata.getParentFile(), key(url) + BODY_EXTENSION);
+            return new Fixture(url, root.getInt("code"), headers, body);
+        }
+        catch (JSONException e) {
+            throw new IOException(metadata.getName() + " is not a valid fixture.", e);
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return The value of a header, or null if it was not part of the response. The comparison
+     * of header names is case-insensitive.
+     */
+    String get_header(String name)
+    {
+        for (Map.Entry<String, List<String>> h : _headers.entrySet())
+        {
+            if (h.getKey().equalsIgnoreCase(name) && !h.getValue().isEmpty()) {
+                return h.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    String                      get_url()       { return _url; }
+    int                         get_code()      { return _code; }
+    Map<String, List<String>>   get_headers()   { return _headers; }
+    File                        get_body()      { return _body; }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final String                    _url;
+    private final int                       _code;
+    private final Map<String, List<String>> _headers;
+    private final File                      _body;
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.transport;
+
+import android.util.Log;
+import fr.kwiatkowski.apktrack.MainActivity;
+
+import java.io.*;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends the requests through another transport, and saves every response it obtains as a
+ * <code>Fixture</code> which can be served later by a <code>ReplayServer</code>.
+ *
+ * Response bodies are copied to disk while they are being read. The pipeline may stop reading
+ * a page as soon as it has found what it was looking for: in that case, the rest of the page
+ * is read when the stream is closed, so that the fixture is complete.
+ */
+public class RecordingTransport implements Transport
+{
+    // Headers describing the connection rather than the resource are not recorded.
+    private static final String[] HOP_BY_HOP_HEADERS = {
+        "Connection", "Keep-Alive", "Transfer-Encoding", "Content-Length" };
+
+    /**
+     * @param delegate The transport actually sending the requests.
+     * @param directory The directory where the fixtures are saved.
+     */
+    public RecordingTransport(Transport delegate, File directory)
+    {
+        _delegate = delegate;
+        _directory = directory;
+        if (!_directory.isDirectory() && !_directory.mkdirs()) {
+            Log.w(MainActivity.TAG, "[RecordingTransport] Could not create " + _directory.getAbsolutePath());
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public Response open(URL target, Map<String, String> headers) throws IOException
+    {
+        // Conditional requests would only record empty 304 responses.
+        Map<String, String> unconditional = new LinkedHashMap<String, String>(headers);
+        unconditional.remove("If-None-Match");
+        unconditional.remove("If-Modified-Since");
+        return new RecordingResponse(target.toString(), _delegate.open(target, unconditional));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public void close() {
+        _delegate.close();
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class RecordingResponse
+    // --------------------------------------------------------------------------------------------
+
+    private class RecordingResponse implements Response
+    {
+        RecordingResponse(String url, Response delegate)
+        {
+            _url = url;
+            _response = delegate;
+            _body = new File(_directory, Fixture.key(url) + Fixture.BODY_EXTENSION);
+        }
+
+        @Override
+        public int get_code() throws IOException {
+            return _response.get_code();
+        }
+
+        @Override
+        public String get_header(String name) {
+            return _response.get_header(name);
+        }
+
+        @Override
+        public Map<String, List<String>> get_headers() {
+            return _response.get_headers();
+        }
+
+        @Override
+        public InputStream get_body() throws IOException {
+            return _tee(_response.get_body());
+        }
+
+        @Override
+        public InputStream get_error_body()
+        {
+            InputStream is = _response.get_error_body();
+            if (is == null) {
+                return null;
+            }
+            try {
+                return _tee(is);
+            }
+            catch (IOException e)
+            {
+                Log.w(MainActivity.TAG, "[RecordingTransport] Could not record " + _url, e);
+                return is;
+            }
+        }
+
+        @Override
+        public void close(boolean keep_alive)
+        {
+            try {
+                _save();
+            }
+            catch (IOException e) {
+                Log.w(MainActivity.TAG, "[RecordingTransport] Could not record " + _url, e);
+            }
+            _response.close(keep_alive);
+        }
+
+        /**
+         * Writes the fixture once the body has been copied.
+         */
+        private void _save() throws IOException
+        {
+            int code = _response.get_code();
+            if (_tee == null)
+            {
+                // The body was never read (i.e. the request failed early): record an empty one.
+                new FileOutputStream(_body).close();
+            }
+            else if (!_tee.is_complete()) {
+                return; // The copy was interrupted.
+            }
+
+            Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+            for (Map.Entry<String, List<String>> h : _response.get_headers().entrySet())
+            {
+                if (h.getKey() != null && !_is_hop_by_hop(h.getKey())) { // The null key is the status line.
+                    headers.put(h.getKey(), h.getValue());
+                }
+            }
+            new Fixture(_url, code, headers, _body).save_metadata();
+            Log.v(MainActivity.TAG, "[RecordingTransport] Recorded " + _url);
+        }
+
+        private InputStream _tee(InputStream is) throws IOException
+        {
+            _tee = new TeeInputStream(is, new FileOutputStream(_body));
+            return _tee;
+        }
+
+        private final String    _url;
+        private final Response  _response;
+        private final File      _body;
+        private TeeInputStream  _tee = null;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static boolean _is_hop_by_hop(String header)
+    {
+        for (String h : HOP_BY_HOP_HEADERS)
+        {
+            if (h.equalsIgnoreCase(header)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class TeeInputStream
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Copies everything read from a stream to a file. The remainder of the stream is copied
+     * as well when it is closed.
+     */
+    private static class TeeInputStream extends FilterInputStream
+    {
+        TeeInputStream(InputStream in, OutputStream copy)
+        {
+            super(in);
+            _copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b != -1) {
+                _copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException
+        {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                _copy.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            // Skipped bytes must be copied too.
+            byte[] buffer = new byte[(int) Math.min(n, 2048)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                byte[] buffer = new byte[8192];
+                while (read(buffer, 0, buffer.length) != -1) {}
+                _complete = true;
+            }
+            finally
+            {
+                _copy.close();
+                super.close();
+            }
+        }
+
+        boolean is_complete() {
+            return _complete;
+        }
+
+        private final OutputStream  _copy;
+        private boolean             _complete = false;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final Transport _delegate;
+    private final File      _directory;
+}
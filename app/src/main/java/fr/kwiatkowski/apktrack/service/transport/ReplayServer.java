@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.transport;
+
+import android.util.Log;
+import fr.kwiatkowski.apktrack.MainActivity;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A minimal HTTP server listening on the loopback interface, which serves the fixtures saved
+ * by the <code>RecordingTransport</code>.
+ *
+ * The original URL is expected as the (encoded) path of the request. If no fixture was
+ * recorded for it, a fixture recorded for the same host is chosen deterministically instead,
+ * so that synthetic apps get realistic pages. Hosts for which nothing was recorded get a 404.
+ *
+ * In order to approximate real update sources, each response can be delayed by a fixed
+ * latency plus a random jitter, and a fraction of the requests can be answered with a 503
+ * error or by closing the connection without answering.
+ */
+public class ReplayServer
+{
+    private static final int SOCKET_TIMEOUT = 30000;
+
+    /**
+     * @param directory The directory containing the fixtures.
+     * @param latency The minimum delay before each response is sent, in milliseconds.
+     * @param jitter The maximum random delay added to <code>latency</code>, in milliseconds.
+     * @param error_rate The fraction of requests answered with a 503 error (between 0 and 1).
+     * @param reset_rate The fraction of connections closed without an answer (between 0 and 1).
+     */
+    public ReplayServer(File directory, int latency, int jitter, double error_rate, double reset_rate)
+    {
+        _directory = directory;
+        _latency = Math.max(0, latency);
+        _jitter = Math.max(0, jitter);
+        _error_rate = error_rate;
+        _reset_rate = reset_rate;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Loads the fixtures and starts listening on an ephemeral port.
+     * @throws IOException If the server socket could not be opened.
+     */
+    public synchronized void start() throws IOException
+    {
+        File[] files = _directory.listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                if (!f.getName().endsWith(Fixture.METADATA_EXTENSION)) {
+                    continue;
+                }
+                try
+                {
+                    Fixture fixture = Fixture.load(f);
+                    _fixtures.put(fixture.get_url(), fixture);
+                    String host = new URL(fixture.get_url()).getHost();
+                    List<Fixture> l = _fixtures_by_host.get(host);
+                    if (l == null)
+                    {
+                        l = new ArrayList<Fixture>();
+                        _fixtures_by_host.put(host, l);
+                    }
+                    l.add(fixture);
+                }
+                catch (IOException e) {
+                    Log.w(MainActivity.TAG, "[ReplayServer] Ignoring " + f.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+        // Make the fallback choices independent of the order of the files on disk.
+        for (List<Fixture> l : _fixtures_by_host.values())
+        {
+            Collections.sort(l, new Comparator<Fixture>() {
+                @Override
+                public int compare(Fixture f1, Fixture f2) {
+                    return f1.get_url().compareTo(f2.get_url());
+                }
+            });
+        }
+
+        _server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        _pool = Executors.newCachedThreadPool();
+        _pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                _accept_loop();
+            }
+        });
+        Log.v(MainActivity.TAG, "[ReplayServer] Serving " + _fixtures.size() + " fixtures on port " +
+                _server.getLocalPort() + ".");
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Stops the server and closes all the connections.
+     */
+    public synchronized void stop()
+    {
+        if (_server == null) {
+            return;
+        }
+        try {
+            _server.close();
+        }
+        catch (IOException ignored) {}
+        for (Socket s : _connections.keySet())
+        {
+            try {
+                s.close();
+            }
+            catch (IOException ignored) {}
+        }
+        _pool.shutdownNow();
+        _server = null;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return The port the server is listening on.
+     */
+    public int get_port() {
+        return _server.getLocalPort();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return The hosts for which at least one fixture was recorded.
+     */
+    public Set<String> get_hosts() {
+        return Collections.unmodifiableSet(_fixtures_by_host.keySet());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private void _accept_loop()
+    {
+        while (true)
+        {
+            final Socket s;
+            try {
+                s = _server.accept();
+            }
+            catch (IOException e) {
+                return; // The server was stopped.
+            }
+            _connections.put(s, Boolean.TRUE);
+            _pool.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        _serve(s);
+                    }
+                    catch (IOException ignored) {} // The client went away.
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        _connections.remove(s);
+                        try {
+                            s.close();
+                        }
+                        catch (IOException ignored) {}
+                    }
+                }
+            });
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Answers the requests received on a connection until the client closes it.
+     */
+    private void _serve(Socket s) throws IOException, InterruptedException
+    {
+        s.setSoTimeout(SOCKET_TIMEOUT);
+        InputStream in = new BufferedInputStream(s.getInputStream());
+        OutputStream out = new BufferedOutputStream(s.getOutputStream());
+        while (true)
+        {
+            String request_line = _read_line(in);
+            if (request_line == null || request_line.isEmpty()) {
+                return;
+            }
+            Map<String, String> headers = new HashMap<String, String>();
+            for (String line = _read_line(in) ; line != null && !line.isEmpty() ; line = _read_line(in))
+            {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+                }
+            }
+
+            // Error injection.
+            double dice = _random.nextDouble();
+            if (dice < _reset_rate) {
+                return; // Close the connection without answering.
+            }
+            long delay = _latency + (_jitter > 0 ? _random.nextInt(_jitter + 1) : 0);
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            if (dice < _reset_rate + _error_rate) {
+                _respond(out, 503, null, null);
+            }
+            else
+            {
+                String[] parts = request_line.split(" ");
+                String url = parts.length > 1 && parts[1].length() > 1 ?
+                        URLDecoder.decode(parts[1].substring(1), "UTF-8") : "";
+                Fixture f = _find_fixture(url);
+                if (f == null) {
+                    _respond(out, 404, null, null);
+                }
+                else if (_is_not_modified(f, headers)) {
+                    _respond(out, 304, f, null);
+                }
+                else {
+                    _respond(out, f.get_code(), f, f.get_body());
+                }
+            }
+            out.flush();
+
+            if ("close".equalsIgnoreCase(headers.get("connection"))) {
+                return;
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private Fixture _find_fixture(String url)
+    {
+        Fixture f = _fixtures.get(url);
+        if (f != null) {
+            return f;
+        }
+        try
+        {
+            List<Fixture> candidates = _fixtures_by_host.get(new URL(url).getHost());
+            if (candidates == null) {
+                return null;
+            }
+            return candidates.get((url.hashCode() & 0x7fffffff) % candidates.size());
+        }
+        catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static boolean _is_not_modified(Fixture f, Map<String, String> request_headers)
+    {
+        String etag = f.get_header("ETag");
+        String last_modified = f.get_header("Last-Modified");
+        return (etag != null && etag.equals(request_headers.get("if-none-match"))) ||
+               (last_modified != null && last_modified.equals(request_headers.get("if-modified-since")));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Writes a response.
+     * @param code The status code.
+     * @param f The fixture whose headers should be sent (may be null).
+     * @param body The file containing the body to send (may be null).
+     */
+    private static void _respond(OutputStream out, int code, Fixture f, File body) throws IOException
+    {
+        long length = body != null && body.isFile() ? body.length() : 0;
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(code).append(' ').append(_reason(code)).append("\r\n");
+        if (f != null)
+        {
+            for (Map.Entry<String, List<String>> h : f.get_headers().entrySet())
+            {
+                for (String value : h.getValue()) {
+                    sb.append(h.getKey()).append(": ").append(value).append("\r\n");
+                }
+            }
+        }
+        if (code != 304) {
+            sb.append("Content-Length: ").append(length).append("\r\n");
+        }
+        sb.append("Connection: keep-alive\r\n\r\n");
+        out.write(sb.toString().getBytes("ISO-8859-1"));
+
+        if (length == 0 || code == 304) {
+            return;
+        }
+        InputStream is = new FileInputStream(body);
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static String _reason(int code)
+    {
+        switch (code)
+        {
+            case 200: return "OK";
+            case 304: return "Not Modified";
+            case 404: return "Not Found";
+            case 503: return "Service Unavailable";
+            default: return "Status " + code;
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return A line of the request without its terminator, or null if the connection was
+     * closed.
+     */
+    private static String _read_line(InputStream in) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1)
+        {
+            if (c == '\n')
+            {
+                int length = sb.length();
+                if (length > 0 && sb.charAt(length - 1) == '\r') {
+                    sb.setLength(length - 1);
+                }
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final File                          _directory;
+    private final int                           _latency;
+    private final int                           _jitter;
+    private final double                        _error_rate;
+    private final double                        _reset_rate;
+    private final Random                        _random = new Random();
+    private final Map<String, Fixture>          _fixtures = new HashMap<String, Fixture>();
+    private final Map<String, List<Fixture>>    _fixtures_by_host = new HashMap<String, List<Fixture>>();
+    private final Map<Socket, Boolean>          _connections = new ConcurrentHashMap<Socket, Boolean>();
+    private ServerSocket                        _server;
+    private ExecutorService                     _pool;
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.transport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+
+/**
+ * Sends the requests to a local <code>ReplayServer</code> instead of the update sources.
+ * The requests still go through <code>HttpURLConnection</code>, so that the whole pipeline
+ * (connection pooling, decompression, timeouts...) is exercised.
+ */
+public class ReplayTransport implements Transport
+{
+    /**
+     * @param server The server serving the recorded responses. It is stopped when the
+     *               transport is closed.
+     */
+    public ReplayTransport(ReplayServer server) {
+        _server = server;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public Response open(URL target, Map<String, String> headers) throws IOException
+    {
+        URL local = new URL("http", "127.0.0.1", _server.get_port(),
+                            "/" + URLEncoder.encode(target.toString(), "UTF-8"));
+        return _direct.open(local, headers);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public void close() {
+        _server.stop();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    public ReplayServer get_server() {
+        return _server;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final ReplayServer      _server;
+    private final Transport         _direct = new UrlConnectionTransport(null);
+}
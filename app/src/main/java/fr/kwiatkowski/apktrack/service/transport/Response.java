@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The response to a request sent through a <code>Transport</code>. Its methods behave like
+ * their <code>HttpURLConnection</code> counterparts.
+ */
+public interface Response
+{
+    /**
+     * @return The HTTP status code of the response.
+     * @throws IOException If the response could not be read.
+     */
+    int get_code() throws IOException;
+
+    /**
+     * @return The value of a header, or null if it is absent.
+     */
+    String get_header(String name);
+
+    /**
+     * @return All the headers of the response.
+     */
+    Map<String, List<String>> get_headers();
+
+    /**
+     * @return The body of a successful response, as it was sent (i.e. still compressed).
+     * @throws java.io.FileNotFoundException If the server answered with a 404 or 410.
+     * @throws IOException If the body cannot be read.
+     */
+    InputStream get_body() throws IOException;
+
+    /**
+     * @return The body of an error response, or null if there is none.
+     */
+    InputStream get_error_body();
+
+    /**
+     * Releases the connection.
+     * @param keep_alive Whether the response was read entirely, in which case the connection
+     *                   may be reused for the next request to the same host.
+     */
+    void close(boolean keep_alive);
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.transport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * The object sending the HTTP requests of the <code>WebService</code>.
+ *
+ * The default implementation goes through <code>HttpURLConnection</code>. Other ones record
+ * the responses obtained from the update sources, or replay them from a local server so that
+ * the check pipeline can be exercised without touching the network.
+ */
+public interface Transport
+{
+    /**
+     * Sends a GET request and waits until the connection is established.
+     * @param target The URL to query.
+     * @param headers The request headers.
+     * @return An object giving access to the response.
+     * @throws IOException If the connection could not be established.
+     */
+    Response open(URL target, Map<String, String> headers) throws IOException;
+
+    /**
+     * Releases the resources held by the transport. Called when the service is destroyed.
+     */
+    void close();
+}
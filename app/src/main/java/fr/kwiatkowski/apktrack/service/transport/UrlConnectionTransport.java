@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.transport;
+
+import android.content.Context;
+import fr.kwiatkowski.apktrack.service.utils.ProxyHelper;
+import fr.kwiatkowski.apktrack.service.utils.SSLHelper;
+
+import javax.net.ssl.HttpsURLConnection;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends the requests through the platform's <code>HttpURLConnection</code>. This is the
+ * transport used unless another one was selected for testing purposes.
+ */
+public class UrlConnectionTransport implements Transport
+{
+    public static final int READ_TIMEOUT = 10000; // 10s
+
+    /**
+     * @param ctx The context used to obtain the proxy settings and ApkTrack's certificate. If
+     *            null, connections are direct.
+     */
+    public UrlConnectionTransport(Context ctx) {
+        _ctx = ctx;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public Response open(URL target, Map<String, String> headers) throws IOException
+    {
+        // Set the proxy.
+        HttpURLConnection huc = (HttpURLConnection) target.openConnection(
+                _ctx == null ? Proxy.NO_PROXY : ProxyHelper.get_proxy(_ctx));
+
+        // Authenticate ApkTrack's servers against the bundled certificate.
+        if (_ctx != null &&
+            "https".equals(target.getProtocol()) &&
+            "apktrack.kwiatkowski.fr".equals(target.getHost()) &&
+            huc instanceof HttpsURLConnection)
+        {
+            ((HttpsURLConnection) huc).setSSLSocketFactory(SSLHelper.get_ssl_socket_factory(_ctx));
+        }
+
+        for (Map.Entry<String, String> h : headers.entrySet()) {
+            huc.setRequestProperty(h.getKey(), h.getValue());
+        }
+        huc.setRequestMethod("GET");
+        huc.setReadTimeout(READ_TIMEOUT);
+        huc.connect();
+        return new UrlConnectionResponse(huc);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public void close() {} // Connections are pooled by the platform.
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class UrlConnectionResponse
+    // --------------------------------------------------------------------------------------------
+
+    private static class UrlConnectionResponse implements Response
+    {
+        UrlConnectionResponse(HttpURLConnection huc) {
+            _huc = huc;
+        }
+
+        @Override
+        public int get_code() throws IOException {
+            return _huc.getResponseCode();
+        }
+
+        @Override
+        public String get_header(String name) {
+            return _huc.getHeaderField(name);
+        }
+
+        @Override
+        public Map<String, List<String>> get_headers() {
+            return _huc.getHeaderFields();
+        }
+
+        @Override
+        public InputStream get_body() throws IOException {
+            return _huc.getInputStream();
+        }
+
+        @Override
+        public InputStream get_error_body() {
+            return _huc.getErrorStream();
+        }
+
+        @Override
+        public void close(boolean keep_alive)
+        {
+            // Connections whose response was fully read are returned to the platform's
+            // keep-alive pool, so that the next request to this host skips the TCP and TLS
+            // handshakes. The others are in an unknown state and must be closed.
+            if (!keep_alive) {
+                _huc.disconnect();
+            }
+        }
+
+        private final HttpURLConnection _huc;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final Context _ctx;
+}
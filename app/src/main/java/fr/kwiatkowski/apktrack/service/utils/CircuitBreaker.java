@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.utils;
+
+import android.util.Log;
+import fr.kwiatkowski.apktrack.MainActivity;
+import fr.kwiatkowski.apktrack.model.UpdateSource;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps track of the update sources which are failing, so that requests which are bound to
+ * fail are not sent.
+ *
+ * After <code>FAILURE_THRESHOLD</code> consecutive failures (network errors, 429 or 5xx
+ * responses), a source is considered unavailable and requests to it are refused until a
+ * backoff delay has elapsed. A single request is then allowed through: if it succeeds, the
+ * source is available again; otherwise the delay is doubled. A Retry-After header sent by the
+ * source takes precedence over the computed delay.
+ */
+public class CircuitBreaker
+{
+    public static final int FAILURE_THRESHOLD = 3;
+    public static final long MIN_BACKOFF = 30 * 1000;
+    public static final long MAX_BACKOFF = 30 * 60 * 1000;
+    // Retry-After values longer than this are not believed.
+    public static final long MAX_RETRY_AFTER = 24 * 60 * 60 * 1000;
+
+    /**
+     * Checks whether a request may be sent to a source. If the source was unavailable and its
+     * backoff delay has elapsed, the caller is allowed to send a trial request and must report
+     * its outcome.
+     * @param source The update source about to be queried.
+     * @return False if the source is unavailable and the request should not be sent.
+     */
+    public synchronized boolean allow_request(UpdateSource source)
+    {
+        State s = _states.get(source.get_name());
+        if (s == null || s.open_until == 0) {
+            return true; // Closed
+        }
+        if (now() < s.open_until || s.trial_in_progress) {
+            return false;
+        }
+        Log.v(MainActivity.TAG, "Trying " + source.get_name() + " again.");
+        s.trial_in_progress = true; // Half-open
+        return true;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Reports that a source answered a request.
+     * @param source The update source which was queried.
+     */
+    public synchronized void on_success(UpdateSource source)
+    {
+        State s = _states.get(source.get_name());
+        if (s == null) {
+            return;
+        }
+        if (s.open_until != 0) {
+            Log.v(MainActivity.TAG, source.get_name() + " is available again.");
+        }
+        _states.remove(source.get_name());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Reports that a request to a source failed.
+     * @param source The update source which was queried.
+     * @param retry_after The contents of the Retry-After header returned by the source, if any.
+     */
+    public synchronized void on_failure(UpdateSource source, String retry_after)
+    {
+        State s = _states.get(source.get_name());
+        if (s == null)
+        {
+            s = new State();
+            _states.put(source.get_name(), s);
+        }
+        ++s.failures;
+
+        long delay = _parse_retry_after(retry_after);
+        if (delay <= 0)
+        {
+            if (s.failures < FAILURE_THRESHOLD && s.open_until == 0) {
+                return; // Not enough failures to give up on the source yet.
+            }
+            delay = s.backoff;
+            s.backoff = Math.min(MAX_BACKOFF, s.backoff * 2);
+        }
+
+        s.open_until = now() + delay;
+        s.trial_in_progress = false;
+        Log.w(MainActivity.TAG, source.get_name() + " seems unavailable. No requests will be " +
+                "sent to it for the next " + delay / 1000 + " seconds.");
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @param retry_after The value of a Retry-After header: either a number of seconds or an
+     *                    HTTP date.
+     * @return The number of milliseconds to wait, or 0 if the value couldn't be parsed.
+     */
+    private long _parse_retry_after(String retry_after)
+    {
+        if (retry_after == null) {
+            return 0;
+        }
+        long delay;
+        try {
+            delay = Long.parseLong(retry_after.trim()) * 1000;
+        }
+        catch (NumberFormatException e)
+        {
+            try
+            {
+                SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+                delay = format.parse(retry_after.trim()).getTime() - now();
+            }
+            catch (ParseException ignored) {
+                return 0;
+            }
+        }
+        return Math.max(0, Math.min(MAX_RETRY_AFTER, delay));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return The current time, in milliseconds. Overridden by the unit tests.
+     */
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class State
+    // --------------------------------------------------------------------------------------------
+
+    private static class State
+    {
+        int     failures = 0;
+        long    open_until = 0;     // 0 while the source is available.
+        long    backoff = MIN_BACKOFF;
+        boolean trial_in_progress = false;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final Map<String, State> _states = new HashMap<String, State>();
+}
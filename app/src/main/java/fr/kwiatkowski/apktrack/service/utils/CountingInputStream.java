@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream which keeps track of the number of bytes read through it.
+ * It can optionally be given a limit, after which it behaves as if the end of the underlying
+ * stream had been reached.
+ */
+public class CountingInputStream extends FilterInputStream
+{
+    public CountingInputStream(InputStream in) {
+        this(in, Long.MAX_VALUE);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @param in The stream to read from.
+     * @param limit The maximum number of bytes which may be read.
+     */
+    public CountingInputStream(InputStream in, long limit)
+    {
+        super(in);
+        _limit = limit;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public int read() throws IOException
+    {
+        if (_check_limit()) {
+            return -1;
+        }
+        int b = super.read();
+        if (b >= 0) {
+            ++_count;
+        }
+        return b;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException
+    {
+        if (_check_limit()) {
+            return -1;
+        }
+        int read = super.read(buffer, offset, (int) Math.min(length, _limit - _count));
+        if (read > 0) {
+            _count += read;
+        }
+        return read;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = super.skip(Math.min(n, _limit - _count));
+        _count += skipped;
+        return skipped;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    // Marking isn't supported, as it would make the count meaningless.
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return The number of bytes read so far.
+     */
+    public long get_count() {
+        return _count;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return Whether reading was stopped because the limit was reached.
+     */
+    public boolean is_limit_reached() {
+        return _limit_reached;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private boolean _check_limit()
+    {
+        if (_count >= _limit) {
+            _limit_reached = true;
+        }
+        return _limit_reached;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final long  _limit;
+    private long        _count = 0;
+    private boolean     _limit_reached = false;
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.utils;
+
+import android.util.Log;
+import fr.kwiatkowski.apktrack.MainActivity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps an excerpt of the last page which an update source entry failed to parse, so that
+ * broken sources can be investigated without dumping whole pages into the logs.
+ *
+ * At most <code>MAX_RECORDS</code> records are kept (one per source and entry, the oldest being
+ * evicted first), and each excerpt is limited to the first <code>MAX_EXCERPT</code> characters
+ * of the page and stored compressed. Nothing is recorded unless diagnostics are enabled in the
+ * settings.
+ */
+public class Diagnostics
+{
+    public static final int MAX_RECORDS = 16;
+    public static final int MAX_EXCERPT = 8 * 1024;
+
+    /**
+     * @return Whether failures are currently being recorded.
+     */
+    public static boolean is_enabled() {
+        return _enabled;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Starts or stops recording failures. The records are discarded when diagnostics are
+     * disabled.
+     */
+    public static void set_enabled(boolean enabled)
+    {
+        _enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Records that the information could not be extracted from a page. Returns immediately
+     * if diagnostics are disabled.
+     * @param source The name of the update source.
+     * @param entry The package expression of the entry which was applied.
+     * @param package_name The app which was being checked.
+     * @param reason What could not be found (i.e. "version").
+     * @param page The contents of the page, or the part of it which was still available.
+     */
+    public static void record(String source,
+                              String entry,
+                              String package_name,
+                              String reason,
+                              CharSequence page)
+    {
+        if (!_enabled) {
+            return;
+        }
+
+        Record r = new Record();
+        r.source = source;
+        r.entry = entry;
+        r.date = new Date();
+        r.package_name = package_name;
+        r.reason = reason;
+        r.length = page == null ? 0 : page.length();
+        r.excerpt = page == null ? null : _compress(page.subSequence(0, Math.min(MAX_EXCERPT, page.length())));
+
+        String key = source + "\n" + entry;
+        synchronized (_records)
+        {
+            _records.remove(key); // Move the source to the end of the queue.
+            _records.put(key, r);
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return The number of records currently stored.
+     */
+    public static int size()
+    {
+        synchronized (_records) {
+            return _records.size();
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Discards all the records.
+     */
+    public static void clear()
+    {
+        synchronized (_records) {
+            _records.clear();
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return A human-readable report containing every record, from the oldest to the most
+     * recent one.
+     */
+    public static String export()
+    {
+        List<Record> records;
+        synchronized (_records) {
+            records = new ArrayList<Record>(_records.values());
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Record r : records)
+        {
+            sb.append("=== ").append(r.source).append(" [").append(r.entry).append("]\n");
+            sb.append("Date: ").append(r.date).append('\n');
+            sb.append("Package: ").append(r.package_name).append('\n');
+            sb.append("Missing: ").append(r.reason).append('\n');
+            sb.append("Page size: ").append(r.length).append(" characters");
+            if (r.length > MAX_EXCERPT) {
+                sb.append(" (truncated to ").append(MAX_EXCERPT).append(')');
+            }
+            sb.append("\n\n").append(_decompress(r.excerpt)).append("\n\n");
+        }
+        return sb.toString();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static byte[] _compress(CharSequence text)
+    {
+        // The stream doesn't own a Deflater it is given: its native memory must be freed here.
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DeflaterOutputStream dos = new DeflaterOutputStream(bos, deflater);
+            dos.write(text.toString().getBytes("UTF-8"));
+            dos.close();
+            return bos.toByteArray();
+        }
+        catch (IOException e)
+        {
+            Log.e(MainActivity.TAG, "[Diagnostics._compress] Could not compress the excerpt.", e);
+            return null;
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static String _decompress(byte[] data)
+    {
+        if (data == null) {
+            return "";
+        }
+        try
+        {
+            InputStream is = new InflaterInputStream(new ByteArrayInputStream(data));
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[2048];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                bos.write(buffer, 0, read);
+            }
+            is.close();
+            return bos.toString("UTF-8");
+        }
+        catch (IOException e)
+        {
+            Log.e(MainActivity.TAG, "[Diagnostics._decompress] Could not decompress the excerpt.", e);
+            return "";
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class Record
+    // --------------------------------------------------------------------------------------------
+
+    private static class Record
+    {
+        String  source;
+        String  entry;
+        String  package_name;
+        String  reason;
+        Date    date;
+        int     length;
+        byte[]  excerpt;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static volatile boolean _enabled = false;
+    private static final Map<String, Record> _records = new LinkedHashMap<String, Record>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+            return size() > MAX_RECORDS;
+        }
+    };
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.utils;
+
+import android.util.Log;
+import fr.kwiatkowski.apktrack.MainActivity;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process registry of the metrics collected by the check pipeline, used to find out where
+ * the time of a check cycle goes.
+ *
+ * Metrics are identified by a name of the form <code>stage.metric</code>, optionally followed
+ * by <code>/source</code>. Counters and histograms are created on first use and updated
+ * without locking. Histograms have fixed buckets: durations are expressed in microseconds,
+ * other values (i.e. number of sources tried per discovery) are plain counts.
+ */
+public class Metrics
+{
+    // Upper bounds of the buckets of duration histograms, in microseconds.
+    public static final long[] DURATION_BUCKETS = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+            1000000, 2500000, 5000000, 10000000 };
+    // Upper bounds of the buckets of count histograms.
+    public static final long[] COUNT_BUCKETS = { 0, 1, 2, 3, 4, 6, 8, 12, 16, 24, 32 };
+
+    /**
+     * Adds one to a counter.
+     * @param name The name of the counter.
+     */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Adds a value to a counter.
+     * @param name The name of the counter.
+     * @param delta The value to add.
+     */
+    public static void add(String name, long delta)
+    {
+        AtomicLong counter = _counters.get(name);
+        if (counter == null)
+        {
+            AtomicLong created = new AtomicLong();
+            counter = _counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Records a duration in a histogram.
+     * @param name The name of the histogram.
+     * @param nanos The duration, in nanoseconds (as measured with <code>System.nanoTime</code>).
+     */
+    public static void record_duration(String name, long nanos) {
+        _histogram(name, DURATION_BUCKETS).record(nanos / 1000);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Records a count in a histogram.
+     * @param name The name of the histogram.
+     * @param value The value to record.
+     */
+    public static void record_count(String name, long value) {
+        _histogram(name, COUNT_BUCKETS).record(value);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Discards all the metrics collected so far.
+     */
+    public static void reset()
+    {
+        _counters.clear();
+        _histograms.clear();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return All the metrics, as a JSON document containing a "counters" object and a
+     * "histograms" object. Each histogram contains its count, sum, bucket bounds and the number
+     * of values in each bucket (the last one counting the values above the highest bound).
+     */
+    public static String to_json()
+    {
+        JSONObject root = new JSONObject();
+        try
+        {
+            JSONObject counters = new JSONObject();
+            for (Map.Entry<String, AtomicLong> e : new TreeMap<String, AtomicLong>(_counters).entrySet()) {
+                counters.put(e.getKey(), e.getValue().get());
+            }
+            JSONObject histograms = new JSONObject();
+            for (Map.Entry<String, Histogram> e : new TreeMap<String, Histogram>(_histograms).entrySet())
+            {
+                Histogram h = e.getValue();
+                JSONObject o = new JSONObject();
+                o.put("count", h.count.get());
+                o.put("sum", h.sum.get());
+                JSONArray bounds = new JSONArray();
+                JSONArray buckets = new JSONArray();
+                for (int i = 0 ; i < h.buckets.length() ; ++i)
+                {
+                    if (i < h.bounds.length) {
+                        bounds.put(h.bounds[i]);
+                    }
+                    buckets.put(h.buckets.get(i));
+                }
+                o.put("bounds", bounds);
+                o.put("buckets", buckets);
+                histograms.put(e.getKey(), o);
+            }
+            root.put("counters", counters);
+            root.put("histograms", histograms);
+        }
+        catch (JSONException e) {
+            Log.e(MainActivity.TAG, "[Metrics.to_json] Could not serialize the metrics.", e);
+        }
+        return root.toString();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return A human-readable summary of the metrics: the value of each counter, and the
+     * number of values, mean and approximate median and 90th percentile of each histogram.
+     */
+    public static String to_text()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, AtomicLong> e : new TreeMap<String, AtomicLong>(_counters).entrySet()) {
+            sb.append(e.getKey()).append(": ").append(e.getValue().get()).append('\n');
+        }
+        if (sb.length() > 0) {
+            sb.append('\n');
+        }
+        for (Map.Entry<String, Histogram> e : new TreeMap<String, Histogram>(_histograms).entrySet())
+        {
+            Histogram h = e.getValue();
+            long count = h.count.get();
+            if (count == 0) {
+                continue;
+            }
+            sb.append(e.getKey()).append(": n=").append(count)
+              .append(" mean=").append(h.sum.get() / count)
+              .append(" p50<=").append(h.percentile(0.5))
+              .append(" p90<=").append(h.percentile(0.9)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static Histogram _histogram(String name, long[] bounds)
+    {
+        Histogram h = _histograms.get(name);
+        if (h == null)
+        {
+            Histogram created = new Histogram(bounds);
+            h = _histograms.putIfAbsent(name, created);
+            if (h == null) {
+                h = created;
+            }
+        }
+        return h;
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class Histogram
+    // --------------------------------------------------------------------------------------------
+
+    private static class Histogram
+    {
+        Histogram(long[] bounds)
+        {
+            this.bounds = bounds;
+            this.buckets = new AtomicLongArray(bounds.length + 1); // The last one is unbounded.
+        }
+
+        void record(long value)
+        {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) {
+                ++i;
+            }
+            buckets.incrementAndGet(i);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+        }
+
+        /**
+         * @return The upper bound of the bucket containing the given percentile, or -1 if it
+         * is in the unbounded bucket.
+         */
+        long percentile(double p)
+        {
+            long target = (long) Math.ceil(count.get() * p);
+            long seen = 0;
+            for (int i = 0 ; i < bounds.length ; ++i)
+            {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return bounds[i];
+                }
+            }
+            return -1;
+        }
+
+        final long[]            bounds;
+        final AtomicLongArray   buckets;
+        final AtomicLong        count = new AtomicLong();
+        final AtomicLong        sum = new AtomicLong();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static final ConcurrentMap<String, AtomicLong>  _counters = new ConcurrentHashMap<String, AtomicLong>();
+    private static final ConcurrentMap<String, Histogram>   _histograms = new ConcurrentHashMap<String, Histogram>();
+}
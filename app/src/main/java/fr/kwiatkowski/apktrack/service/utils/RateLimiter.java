@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.utils;
+
+import fr.kwiatkowski.apktrack.model.UpdateSource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Spaces out the requests sent to each update source.
+ *
+ * Every source gets its own token bucket, which is refilled at the rate of one token every
+ * <code>request_delay</code> milliseconds (as specified in sources.json). Callers reserve a
+ * token before each request and are told how long they have to wait before sending it, so
+ * that the waiting can be scheduled instead of blocking a thread: the CheckEngine parks the
+ * jobs which have to wait, and parallel discovery schedules its requests. Sources which do
+ * not specify a delay are never throttled.
+ */
+public class RateLimiter
+{
+    // Number of requests which may be sent back-to-back to a source which has been idle.
+    public static final int BURST_SIZE = 1;
+
+    /**
+     * Reserves the right to send a request to the given source.
+     * @param source The update source about to be queried.
+     * @return The number of milliseconds to wait before sending the request (0 if it
+     * may be sent right away).
+     */
+    public synchronized long reserve(UpdateSource source)
+    {
+        if (source == null || source.get_request_delay() <= 0) {
+            return 0;
+        }
+
+        long now = now();
+        Bucket b = _buckets.get(source.get_name());
+        if (b == null)
+        {
+            b = new Bucket(now);
+            _buckets.put(source.get_name(), b);
+        }
+        return b.take(source.get_request_delay(), now);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return The current time, in nanoseconds. Overridden by the unit tests.
+     */
+    long now() {
+        return System.nanoTime();
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class Bucket
+    // --------------------------------------------------------------------------------------------
+
+    private static class Bucket
+    {
+        Bucket(long now) {
+            _last_refill = now;
+        }
+
+        /**
+         * Takes a token from the bucket. The token count may become negative, in which case
+         * it represents requests which have been promised a future token.
+         * @param delay The time it takes to produce a token, in milliseconds.
+         * @param now The current time, in nanoseconds.
+         * @return The time to wait until the token taken is actually available, in milliseconds.
+         */
+        long take(int delay, long now)
+        {
+            double refill = (now - _last_refill) / (delay * 1000000d);
+            _tokens = Math.min(BURST_SIZE, _tokens + refill);
+            _last_refill = now;
+
+            _tokens -= 1;
+            if (_tokens >= 0) {
+                return 0;
+            }
+            return (long) Math.ceil(-_tokens * delay);
+        }
+
+        private double  _tokens = BURST_SIZE;
+        private long    _last_refill;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final Map<String, Bucket> _buckets = new HashMap<String, Bucket>();
+}
@@ -37,6 +37,11 @@ public class SSLHelper
 {
     private static KeyStore _keystore = null;
     private static SSLContext _ssl_context = null;
+    // The same factory must be returned every time: the platform only reuses pooled
+    // connections whose socket factory is identical to the one of the new request.
+    private static SSLSocketFactory _ssl_socket_factory = null;
+    // Number of seconds during which negotiated TLS sessions may be resumed.
+    private static final int SESSION_TIMEOUT = 60 * 60;
 
     /**
      * Obtains the keystore containing the app's trusted certificates from the assets.
@@ -45,7 +50,7 @@ public class SSLHelper
      * interacts, or <code>null</code> if there was a problem reading them from the
      * assets.
      */
-    public static KeyStore get_keystore(@NonNull Context context)
+    public static synchronized KeyStore get_keystore(@NonNull Context context)
     {
         if (_keystore != null) {
             return _keystore;
@@ -81,10 +86,10 @@ public class SSLHelper
      * @return An SSLSocketFactory to use for SSL connections to ApkTracks known servers, or
      * <code>null</code> if it could not be created.
      */
-    public static SSLSocketFactory get_ssl_socket_factory(Context context)
+    public static synchronized SSLSocketFactory get_ssl_socket_factory(Context context)
     {
-        if (_ssl_context != null) {
-            return _ssl_context.getSocketFactory();
+        if (_ssl_socket_factory != null) {
+            return _ssl_socket_factory;
         }
 
         KeyStore keystore = get_keystore(context);
@@ -98,7 +103,10 @@ public class SSLHelper
             tmf.init(keystore);
             _ssl_context = SSLContext.getInstance("TLS");
             _ssl_context.init(null, tmf.getTrustManagers(), null);
-            return _ssl_context.getSocketFactory();
+            // Allow abbreviated handshakes when a new connection to the same server is needed.
+            _ssl_context.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT);
+            _ssl_socket_factory = _ssl_context.getSocketFactory();
+            return _ssl_socket_factory;
         }
         catch (GeneralSecurityException e)
         {
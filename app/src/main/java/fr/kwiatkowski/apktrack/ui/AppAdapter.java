@@ -309,10 +309,10 @@ public class AppAdapter extends RecyclerView.Adapter<AppViewHolder>
         SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(_ctx);
         String sort_type = pref.getString(SettingsFragment.KEY_PREF_SORT_TYPE, SettingsFragment.ALPHA_SORT);
         if (sort_type.equals(SettingsFragment.ALPHA_SORT)) {
-            return new AlphabeticalComparator();
+            return new AlphabeticalComparator<InstalledApp>();
         }
         else {
-            return new StatusComparator();
+            return new StatusComparator<InstalledApp>();
         }
     }
 }
@@ -43,6 +43,7 @@ import fr.kwiatkowski.apktrack.model.comparator.StatusComparator;
 import fr.kwiatkowski.apktrack.service.message.CreateToastMessage;
 import fr.kwiatkowski.apktrack.service.message.ModelModifiedMessage;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 
@@ -128,10 +129,10 @@ public class AppDisplayFragment extends Fragment {
         SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(view.getContext());
         String sort_type = pref.getString(SettingsFragment.KEY_PREF_SORT_TYPE, SettingsFragment.ALPHA_SORT);
         if (sort_type.equals(SettingsFragment.ALPHA_SORT)) {
-            _comparator = new AlphabeticalComparator();
+            _comparator = new AlphabeticalComparator<InstalledApp>();
         }
         else {
-            _comparator = new StatusComparator();
+            _comparator = new StatusComparator<InstalledApp>();
         }
 
         // Reset the currently checking state for all apps in case ApkTrack was terminated forcefully during
@@ -310,7 +311,28 @@ public class AppDisplayFragment extends Fragment {
         if (installed_apps.size() == 0 && activity != null) // Database is empty
         {
             Log.v(MainActivity.TAG, "Populating database...");
-            InstalledApp.generate_applist_from_system(activity.getPackageManager());
+            // Display the apps as soon as they are written instead of waiting for the whole list.
+            InstalledApp.generate_applist_from_system(activity.getPackageManager(), new InstalledApp.ProgressListener() {
+                @Override
+                public void on_progress(List<InstalledApp> apps, int processed, int total)
+                {
+                    final List<InstalledApp> visible = new ArrayList<InstalledApp>();
+                    for (InstalledApp app : apps)
+                    {
+                        if (!app.is_system() && !app.is_ignored()) {
+                            visible.add(app);
+                        }
+                    }
+                    _run_on_ui_thread(new Runnable() {
+                        @Override
+                        public void run()
+                        {
+                            _app_adapter.add_apps(visible);
+                            _spinner.setVisibility(View.GONE);
+                        }
+                    });
+                }
+            });
             installed_apps = InstalledApp.find(InstalledApp.class, "_systemapp = 0 AND _isignored = 0");
             Log.v(MainActivity.TAG, "...database populated. " + InstalledApp.count(InstalledApp.class) + " records created.");
             // Enable the "dhow system apps" button now that there may be system apps.
@@ -27,12 +27,16 @@ import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceFragmentCompat;
 import android.util.Log;
 import android.widget.Toast;
+import fr.kwiatkowski.apktrack.BuildConfig;
 import fr.kwiatkowski.apktrack.MainActivity;
 import fr.kwiatkowski.apktrack.R;
 import fr.kwiatkowski.apktrack.model.InstalledApp;
 import fr.kwiatkowski.apktrack.service.EventBusHelper;
+import fr.kwiatkowski.apktrack.service.WebService;
 import fr.kwiatkowski.apktrack.service.message.ModelModifiedMessage;
 import fr.kwiatkowski.apktrack.service.utils.CapabilitiesHelper;
+import fr.kwiatkowski.apktrack.service.utils.Diagnostics;
+import fr.kwiatkowski.apktrack.service.utils.Metrics;
 import fr.kwiatkowski.apktrack.service.utils.ProxyHelper;
 
 import java.util.List;
@@ -44,6 +48,7 @@ public class SettingsFragment extends PreferenceFragmentCompat
     public final static String KEY_PREF_BACKGROUND_CHECKS = "pref_background_checks";
     public final static String KEY_PREF_WIFI_ONLY = "pref_wifi_only";
     public final static String KEY_PREF_DOWNLOAD_APKS = "pref_automatic_downloads";
+    public final static String KEY_PREF_PARALLEL_DISCOVERY = "pref_parallel_discovery";
     public final static String KEY_PREF_PROXY_TYPE = "pref_proxy_type";
     public final static String KEY_PREF_PROXY_ADDRESS = "pref_proxy_address";
     public final static String KEY_PREF_PROXY_WARNING = "pref_proxy_warning";
@@ -53,6 +58,20 @@ public class SettingsFragment extends PreferenceFragmentCompat
     public final static String KEY_PREF_IGNORE_SYSTEM_APPS = "pref_ignore_system_apps";
     public final static String KEY_PREF_IGNORE_XPOSED_APPS = "pref_ignore_xposed_apps";
     public final static String KEY_PREF_IGNORE_UNKNOWN_APPS = "pref_ignore_unknown_apps";
+    public final static String KEY_PREF_DIAGNOSTICS = "pref_diagnostics";
+    public final static String KEY_PREF_EXPORT_DIAGNOSTICS = "action_export_diagnostics";
+    public final static String KEY_PREF_VIEW_METRICS = "action_view_metrics";
+    // Load testing (debug builds only)
+    public final static String KEY_PREF_LOAD_TESTING = "pref_load_testing_category";
+    public final static String KEY_PREF_TRANSPORT = "pref_transport";
+    public final static String KEY_PREF_REPLAY_LATENCY = "pref_replay_latency";
+    public final static String KEY_PREF_REPLAY_ERROR_RATE = "pref_replay_error_rate";
+    public final static String KEY_PREF_LOAD_TEST_SIZE = "pref_load_test_size";
+    public final static String KEY_PREF_RUN_LOAD_TEST = "action_run_load_test";
+
+    public final static String TRANSPORT_NETWORK = "network";
+    public final static String TRANSPORT_RECORD = "record";
+    public final static String TRANSPORT_REPLAY = "replay";
 
     public final static String ALPHA_SORT = "alpha";
     public final static String STATUS_SORT = "status";
@@ -90,8 +109,12 @@ public class SettingsFragment extends PreferenceFragmentCompat
         final Preference proxy_type = findPreference(KEY_PREF_PROXY_TYPE);
         final Preference proxy_address = findPreference(KEY_PREF_PROXY_ADDRESS);
         final Preference refresh_apps = findPreference(KEY_PREF_REFRESH_APPS);
+        final Preference diagnostics = findPreference(KEY_PREF_DIAGNOSTICS);
+        final Preference export_diagnostics = findPreference(KEY_PREF_EXPORT_DIAGNOSTICS);
+        final Preference view_metrics = findPreference(KEY_PREF_VIEW_METRICS);
         if (reset == null || privacy == null || ignore_system == null || ignore_xposed == null ||
-            proxy_type == null || proxy_address == null || clean_apks == null || refresh_apps == null)
+            proxy_type == null || proxy_address == null || clean_apks == null || refresh_apps == null ||
+            diagnostics == null || export_diagnostics == null || view_metrics == null)
         {
             Log.v(MainActivity.TAG, "The preferences are malformed!");
             return;
@@ -249,7 +272,7 @@ public class SettingsFragment extends PreferenceFragmentCompat
                     if (activity == null) {
                         return;
                     }
-                    int[] detection_result = InstalledApp.update_applist(activity.getPackageManager());
+                    int[] detection_result = InstalledApp.update_applist(activity.getPackageManager(), null);
                     // Update the button from the UI thread.
                     activity.runOnUiThread(() -> {
                         refresh_apps.setSummary(getResources().getString(R.string.refresh_installed_apps_desc_3,
@@ -261,6 +284,107 @@ public class SettingsFragment extends PreferenceFragmentCompat
             }
 
         });
+
+        // Start or stop recording diagnostics when the setting is changed.
+        diagnostics.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue)
+            {
+                Diagnostics.set_enabled((Boolean) newValue);
+                return true;
+            }
+        });
+
+        // Setup the listener for the "Export diagnostics" setting.
+        export_diagnostics.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference)
+            {
+                if (Diagnostics.size() == 0)
+                {
+                    Toast.makeText(getContext(), R.string.no_diagnostics, Toast.LENGTH_SHORT).show();
+                    return false;
+                }
+                Intent i = new Intent(Intent.ACTION_SEND);
+                i.setType("text/plain");
+                i.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.diagnostics_subject));
+                i.putExtra(Intent.EXTRA_TEXT, Diagnostics.export());
+                startActivity(Intent.createChooser(i, getString(R.string.export_diagnostics)));
+                return true;
+            }
+        });
+
+        // Display the metrics collected since ApkTrack was started.
+        view_metrics.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference)
+            {
+                String summary = Metrics.to_text();
+                new AlertDialog.Builder(preference.getContext())
+                        .setTitle(R.string.view_metrics)
+                        .setMessage(summary.isEmpty() ? getString(R.string.no_metrics) : summary)
+                        .setPositiveButton(R.string.ok, null)
+                        .setNeutralButton(R.string.export_metrics, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialogInterface, int which)
+                            {
+                                Intent i = new Intent(Intent.ACTION_SEND);
+                                i.setType("application/json");
+                                i.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.metrics_subject));
+                                i.putExtra(Intent.EXTRA_TEXT, Metrics.to_json());
+                                startActivity(Intent.createChooser(i, getString(R.string.export_metrics)));
+                            }
+                        })
+                        .setNegativeButton(R.string.reset_metrics, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialogInterface, int which) {
+                                Metrics.reset();
+                            }
+                        }).show();
+                return true;
+            }
+        });
+
+        _setup_load_testing();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * The load testing settings are only available in debug builds.
+     */
+    private void _setup_load_testing()
+    {
+        Preference category = findPreference(KEY_PREF_LOAD_TESTING);
+        Preference run = findPreference(KEY_PREF_RUN_LOAD_TEST);
+        if (category == null || run == null) {
+            return;
+        }
+        if (!BuildConfig.DEBUG)
+        {
+            getPreferenceScreen().removePreference(category);
+            return;
+        }
+
+        run.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference)
+            {
+                int size;
+                try {
+                    size = Integer.parseInt(preference.getSharedPreferences().getString(KEY_PREF_LOAD_TEST_SIZE, "1000").trim());
+                }
+                catch (NumberFormatException e) {
+                    size = 1000;
+                }
+                Intent i = new Intent(getContext(), WebService.class);
+                i.putExtra(WebService.ACTION, WebService.ACTION_LOAD_TEST);
+                i.putExtra(WebService.LOAD_TEST_SIZE_PARAMETER, size);
+                getContext().startService(i);
+                Toast.makeText(getContext(), R.string.load_test_started, Toast.LENGTH_SHORT).show();
+                return true;
+            }
+        });
     }
 
     // --------------------------------------------------------------------------------------------
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import fr.kwiatkowski.apktrack.BuildConfig;
+import fr.kwiatkowski.apktrack.model.UpdateSource;
+import fr.kwiatkowski.apktrack.service.transport.Fixtures;
+import fr.kwiatkowski.apktrack.service.transport.ReplayServer;
+import fr.kwiatkowski.apktrack.service.transport.ReplayTransport;
+import fr.kwiatkowski.apktrack.service.transport.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs batch requests against a local <code>ReplayServer</code> standing in for an update
+ * source.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class BatchQueryTest
+{
+    private static final String BATCH_URL = "https://batch.example.org/versions/?packages=%1$s";
+    private static final String SECTION = "(?s)<app id=\"%1$s\">(.*?)</app>";
+
+    @Rule
+    public TemporaryFolder fixtures = new TemporaryFolder();
+
+    @Before
+    public void set_up()
+    {
+        UpdateSource.initialize_update_sources(RuntimeEnvironment.application);
+        _source = UpdateSource.get_source("ApkTrack Proxy");
+        _source.set_batch(BATCH_URL, SECTION, 3);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @After
+    public void tear_down()
+    {
+        _source.set_batch(null, null, UpdateSource.DEFAULT_BATCH_SIZE);
+        if (_transport != null) {
+            _transport.close();
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void sections_are_dispatched_to_their_package() throws IOException
+    {
+        Fixtures.write(fixtures.getRoot(), String.format(BATCH_URL, "a,b,c"), 200,
+                       "<apps><app id=\"a\"><version>1.0</version></app>" +
+                       "<app id=\"b\"><version>2.0</version></app></apps>");
+        BatchQuery batches = _start();
+        batches.register(_source, "a");
+        batches.register(_source, "b");
+        batches.register(_source, "c");
+
+        GetResult a = batches.get(_source, "a");
+        assertEquals(GetResult.status_code.SUCCESS, a.get_status());
+        assertEquals("<version>1.0</version>", a.get_page_contents());
+        assertEquals("<version>2.0</version>", batches.get(_source, "b").get_page_contents());
+        // The source answered, but doesn't know about this package.
+        assertEquals(GetResult.status_code.ERROR_404, batches.get(_source, "c").get_status());
+        assertEquals(1, _requests.get());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void batches_are_limited_to_the_batch_size() throws IOException
+    {
+        _source.set_batch(BATCH_URL, SECTION, 2);
+        Fixtures.write(fixtures.getRoot(), String.format(BATCH_URL, "a,b"), 200,
+                       "<app id=\"a\">1.0</app><app id=\"b\">2.0</app>");
+        Fixtures.write(fixtures.getRoot(), String.format(BATCH_URL, "c"), 200,
+                       "<app id=\"c\">3.0</app>");
+        BatchQuery batches = _start();
+        batches.register(_source, "a");
+        batches.register(_source, "b");
+        batches.register(_source, "c");
+
+        assertEquals("1.0", batches.get(_source, "a").get_page_contents());
+        assertEquals("2.0", batches.get(_source, "b").get_page_contents());
+        assertEquals("3.0", batches.get(_source, "c").get_page_contents());
+        assertEquals(2, _requests.get());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void unrecognized_responses_fall_back_to_individual_requests() throws IOException
+    {
+        Fixtures.write(fixtures.getRoot(), String.format(BATCH_URL, "a,b"), 200,
+                       "<html><body>Service temporarily unavailable.</body></html>");
+        BatchQuery batches = _start();
+        batches.register(_source, "a");
+        batches.register(_source, "b");
+
+        // Not a single section: this doesn't mean that the source knows none of the packages.
+        assertNull(batches.get(_source, "a"));
+        assertNull(batches.get(_source, "b"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void failed_requests_fall_back_to_individual_requests() throws IOException
+    {
+        BatchQuery batches = _start(); // Nothing recorded: the server answers with a 404.
+        batches.register(_source, "a");
+
+        assertNull(batches.get(_source, "a"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private BatchQuery _start() throws IOException
+    {
+        ReplayServer server = new ReplayServer(fixtures.getRoot(), 0, 0, 0, 0);
+        server.start();
+        _transport = new ReplayTransport(server);
+        return new BatchQuery(new BatchQuery.Fetcher() {
+            @Override
+            public GetResult fetch(UpdateSource source, String url) {
+                _requests.incrementAndGet();
+                return _fetch(url);
+            }
+        });
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private GetResult _fetch(String url)
+    {
+        try
+        {
+            Response r = _transport.open(new URL(url), Collections.<String, String>emptyMap());
+            try
+            {
+                if (r.get_code() != 200) {
+                    return new GetResult(r.get_code() == 404 ? GetResult.status_code.ERROR_404
+                                                             : GetResult.status_code.UNKNOWN_ERROR);
+                }
+                InputStream is = r.get_body();
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+                return new GetResult(body.toString("UTF-8"));
+            }
+            finally {
+                r.close(true);
+            }
+        }
+        catch (IOException e) {
+            return new GetResult(e);
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private UpdateSource            _source;
+    private ReplayTransport         _transport;
+    private final AtomicInteger     _requests = new AtomicInteger();
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import fr.kwiatkowski.apktrack.BuildConfig;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the <code>CheckEngine</code> keeps count of its jobs, including the ones
+ * dropped because it was shut down.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class CheckEngineTest
+{
+    private static final String HOST = "f-droid.org";
+
+    @After
+    public void tear_down() {
+        _engine.shutdown();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void engine_is_idle_once_every_job_has_run() throws InterruptedException
+    {
+        for (int i = 0 ; i < 10 ; ++i) {
+            _engine.submit(new TestJob(0, null));
+        }
+        assertTrue(_idle.await(5, TimeUnit.SECONDS));
+        assertTrue(_engine.is_idle());
+        assertEquals(10, _runs.get());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void suspended_jobs_are_resumed() throws InterruptedException
+    {
+        final AtomicInteger steps = new AtomicInteger();
+        _engine.submit(new TestJob(0, null) {
+            @Override
+            public long run()
+            {
+                // Asks to be resumed twice before completing.
+                return steps.incrementAndGet() < 3 ? 20 : super.run();
+            }
+        });
+        assertTrue(_idle.await(5, TimeUnit.SECONDS));
+        assertEquals(3, steps.get());
+        assertEquals(1, _runs.get());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void queued_jobs_are_dropped_after_shutdown() throws InterruptedException
+    {
+        CountDownLatch started = new CountDownLatch(CheckEngine.MAX_JOBS_PER_HOST);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0 ; i < CheckEngine.MAX_JOBS_PER_HOST ; ++i) {
+            _engine.submit(new BlockingJob(started, release));
+        }
+        _engine.submit(new TestJob(0, null)); // Waits for a slot in the lane.
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        _engine.shutdown();
+        release.countDown();
+        _wait_until_idle();
+        assertEquals(CheckEngine.MAX_JOBS_PER_HOST, _runs.get());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void parked_jobs_are_dropped_after_shutdown() throws InterruptedException
+    {
+        CountDownLatch reserved = new CountDownLatch(1);
+        _engine.submit(new TestJob(100, reserved));
+        assertTrue(reserved.await(5, TimeUnit.SECONDS));
+
+        _engine.shutdown();
+        _wait_until_idle();
+        assertEquals(0, _runs.get());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private void _wait_until_idle() throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!_engine.is_idle() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Jobs are still pending.", _engine.is_idle());
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class TestJob
+    // --------------------------------------------------------------------------------------------
+
+    private class TestJob implements CheckEngine.Job
+    {
+        TestJob(long delay, CountDownLatch reserved)
+        {
+            _delay = delay;
+            _reserved = reserved;
+        }
+
+        @Override
+        public String get_host() {
+            return HOST;
+        }
+
+        @Override
+        public long reserve()
+        {
+            if (_reserved != null) {
+                _reserved.countDown();
+            }
+            return _delay;
+        }
+
+        @Override
+        public long run()
+        {
+            _runs.incrementAndGet();
+            return 0;
+        }
+
+        private final long              _delay;
+        private final CountDownLatch    _reserved;
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class BlockingJob
+    // --------------------------------------------------------------------------------------------
+
+    private class BlockingJob extends TestJob
+    {
+        BlockingJob(CountDownLatch started, CountDownLatch release)
+        {
+            super(0, null);
+            _started = started;
+            _release = release;
+        }
+
+        @Override
+        public long run()
+        {
+            super.run();
+            _started.countDown();
+            try {
+                _release.await();
+            }
+            catch (InterruptedException ignored) {}
+            return 0;
+        }
+
+        private final CountDownLatch _started;
+        private final CountDownLatch _release;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final AtomicInteger     _runs = new AtomicInteger();
+    private final CountDownLatch    _idle = new CountDownLatch(1);
+    private final CheckEngine       _engine = new CheckEngine(new Runnable() {
+        @Override
+        public void run() {
+            _idle.countDown();
+        }
+    });
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import com.orm.SugarRecord;
+import fr.kwiatkowski.apktrack.BuildConfig;
+import fr.kwiatkowski.apktrack.model.IndexedPackage;
+import fr.kwiatkowski.apktrack.model.UpdateSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stores F-Droid indexes in the database provided by Robolectric.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class IndexParserTest
+{
+    private static final String SOURCE = "F-Droid";
+    private static final String TIMESTAMP = "1445412480";
+
+    private static final String INDEX = "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+            "<fdroid><repo name=\"F-Droid\" timestamp=\"" + TIMESTAMP + "\"/>" +
+            "<application id=\"org.example.app\"><name>App</name>" +
+                "<package><version>1.2.3</version><apkname>app_123.apk</apkname></package>" +
+                "<package><version>1.2.2</version><apkname>app_122.apk</apkname></package>" +
+            "</application>" +
+            "<application id=\"org.example.noapk\">" +
+                "<package><version>2.0</version></package>" +
+            "</application>" +
+            "<application id=\"org.example.nopackage\"><name>Nothing</name></application>" +
+            "</fdroid>";
+
+    @Before
+    public void set_up()
+    {
+        UpdateSource.initialize_update_sources(RuntimeEnvironment.application);
+        _source = UpdateSource.get_source(SOURCE);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @After
+    public void tear_down() {
+        SugarRecord.deleteAll(IndexedPackage.class);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void latest_package_of_each_application_is_stored() throws IOException
+    {
+        IndexParser parser = _parse(INDEX, null);
+        assertTrue(parser.is_complete());
+        assertTrue(parser.is_written());
+        assertFalse(parser.is_stopped_early());
+        assertEquals(TIMESTAMP, parser.get_timestamp());
+
+        IndexedPackage p = IndexedPackage.find_package(SOURCE, "org.example.app");
+        assertNotNull(p);
+        assertEquals("1.2.3", p.get_version());
+        assertEquals("https://f-droid.org/repo/app_123.apk", p.get_download_url()); // Next to the index
+
+        p = IndexedPackage.find_package(SOURCE, "org.example.noapk");
+        assertNotNull(p);
+        assertEquals("2.0", p.get_version());
+        assertNull(p.get_download_url());
+
+        assertNull(IndexedPackage.find_package(SOURCE, "org.example.nopackage"));
+        assertEquals(2, SugarRecord.count(IndexedPackage.class));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void new_index_replaces_the_previous_one() throws IOException
+    {
+        new IndexedPackage(SOURCE, "org.example.removed", "1.0", null).save();
+        new IndexedPackage("Other source", "org.example.removed", "1.0", null).save();
+
+        _parse(INDEX, "1234");
+        assertNull(IndexedPackage.find_package(SOURCE, "org.example.removed"));
+        assertNotNull(IndexedPackage.find_package(SOURCE, "org.example.app"));
+        // Indexes from other sources are left alone.
+        assertNotNull(IndexedPackage.find_package("Other source", "org.example.removed"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void unchanged_index_is_not_read() throws IOException
+    {
+        new IndexedPackage(SOURCE, "org.example.app", "1.0", null).save();
+
+        IndexParser parser = _parse(INDEX, TIMESTAMP);
+        assertTrue(parser.is_stopped_early());
+        assertTrue(parser.is_complete());
+        assertFalse(parser.is_written());
+        assertEquals("1.0", IndexedPackage.find_package(SOURCE, "org.example.app").get_version());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void interrupted_download_keeps_the_previous_index()
+    {
+        new IndexedPackage(SOURCE, "org.example.app", "1.0", null).save();
+
+        // The connection drops in the middle of the index.
+        String received = INDEX.substring(0, INDEX.indexOf("<application id=\"org.example.noapk\""));
+        final Reader contents = new StringReader(received);
+        Reader in = new Reader() {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException
+            {
+                int read = contents.read(buffer, offset, length);
+                if (read < 0) {
+                    throw new IOException("Connection reset");
+                }
+                return read;
+            }
+
+            @Override
+            public void close() {}
+        };
+
+        IndexParser parser = new IndexParser(_source, null);
+        try
+        {
+            parser.extract(in);
+            fail("The error should have been reported.");
+        }
+        catch (IOException expected) {}
+        assertFalse(parser.is_complete());
+        assertFalse(parser.is_written()); // Nothing had been flushed yet.
+        assertEquals("1.0", IndexedPackage.find_package(SOURCE, "org.example.app").get_version());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void large_indexes_are_written_in_chunks() throws IOException
+    {
+        int count = 2 * IndexParser.CHUNK_SIZE + 1;
+        StringBuilder index = new StringBuilder("<fdroid><repo timestamp=\"" + TIMESTAMP + "\"/>");
+        for (int i = 0 ; i < count ; ++i)
+        {
+            index.append("<application id=\"org.example.app").append(i).append("\"><package><version>")
+                 .append(i).append("</version></package></application>");
+        }
+        index.append("</fdroid>");
+
+        IndexParser parser = _parse(index.toString(), null);
+        assertTrue(parser.is_complete());
+        assertEquals(count, SugarRecord.count(IndexedPackage.class));
+        assertEquals(String.valueOf(count - 1),
+                     IndexedPackage.find_package(SOURCE, "org.example.app" + (count - 1)).get_version());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private IndexParser _parse(String index, String known_timestamp) throws IOException
+    {
+        IndexParser parser = new IndexParser(_source, known_timestamp);
+        assertNull(parser.extract(new StringReader(index)));
+        return parser;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private UpdateSource _source;
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the <code>PageCache</code> downloads each page once, and only keeps successful
+ * results.
+ */
+public class PageCacheTest
+{
+    private static final String URL = "https://f-droid.org/repo/index.xml";
+
+    @Test
+    public void page_is_downloaded_once()
+    {
+        GetResult first = _cache.get(URL, _fetcher(new GetResult("page")));
+        GetResult second = _cache.get(URL, _fetcher(new GetResult("other page")));
+        assertEquals(1, _fetches.get());
+        assertSame(first, second);
+        assertEquals("page", second.get_page_contents());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void urls_are_cached_separately()
+    {
+        _cache.get(URL, _fetcher(new GetResult("page")));
+        GetResult res = _cache.get(URL + "?other", _fetcher(new GetResult("other page")));
+        assertEquals(2, _fetches.get());
+        assertEquals("other page", res.get_page_contents());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void simultaneous_requests_share_a_single_download() throws Exception
+    {
+        final int callers = 8;
+        final CountDownLatch started = new CountDownLatch(callers);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<GetResult> slow_fetcher = new Callable<GetResult>() {
+            @Override
+            public GetResult call() throws Exception
+            {
+                _fetches.incrementAndGet();
+                release.await();
+                return new GetResult("page");
+            }
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        List<Future<GetResult>> results = new ArrayList<Future<GetResult>>();
+        for (int i = 0 ; i < callers ; ++i)
+        {
+            results.add(pool.submit(new Callable<GetResult>() {
+                @Override
+                public GetResult call()
+                {
+                    started.countDown();
+                    return _cache.get(URL, slow_fetcher);
+                }
+            }));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        release.countDown();
+
+        GetResult shared = results.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<GetResult> f : results) {
+            assertSame(shared, f.get(5, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+        assertEquals(1, _fetches.get());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void errors_are_not_cached()
+    {
+        GetResult res = _cache.get(URL, _fetcher(new GetResult(GetResult.status_code.NETWORK_ERROR)));
+        assertEquals(GetResult.status_code.NETWORK_ERROR, res.get_status());
+
+        res = _cache.get(URL, _fetcher(new GetResult("page")));
+        assertEquals(2, _fetches.get());
+        assertEquals("page", res.get_page_contents());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void exceptions_are_reported_and_not_cached()
+    {
+        GetResult res = _cache.get(URL, new Callable<GetResult>() {
+            @Override
+            public GetResult call() throws Exception
+            {
+                _fetches.incrementAndGet();
+                throw new IOException("Connection reset");
+            }
+        });
+        assertEquals(GetResult.status_code.UNKNOWN_ERROR, res.get_status());
+        assertNotNull(res.get_exception());
+
+        res = _cache.get(URL, _fetcher(new GetResult("page")));
+        assertEquals(2, _fetches.get());
+        assertTrue(res.is_success());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void clear_forgets_every_page()
+    {
+        _cache.get(URL, _fetcher(new GetResult("page")));
+        _cache.clear();
+        GetResult res = _cache.get(URL, _fetcher(new GetResult("new page")));
+        assertEquals(2, _fetches.get());
+        assertEquals("new page", res.get_page_contents());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @param result The result to return.
+     * @return A fetcher returning the given result and counting its calls.
+     */
+    private Callable<GetResult> _fetcher(final GetResult result)
+    {
+        return new Callable<GetResult>() {
+            @Override
+            public GetResult call()
+            {
+                _fetches.incrementAndGet();
+                return result;
+            }
+        };
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final PageCache     _cache = new PageCache();
+    private final AtomicInteger _fetches = new AtomicInteger();
+}
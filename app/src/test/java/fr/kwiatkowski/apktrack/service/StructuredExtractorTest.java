@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service;
+
+import fr.kwiatkowski.apktrack.BuildConfig;
+import fr.kwiatkowski.apktrack.model.UpdateSourceEntry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Extracts version information from JSON documents and F-Droid style XML indexes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class StructuredExtractorTest
+{
+    private static final String PACKAGE = "org.example.app";
+
+    private static final String JSON = "{\"versionName\": \"1.2.3\", \"versionCode\": 123, " +
+            "\"apks\": [{\"url\": \"https://example.org/app-1.2.3.apk\"}, {\"url\": \"old.apk\"}], " +
+            "\"matrix\": [[\"a\", \"b\"], [\"c\", \"d\"]], \"changelog\": null}";
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+            "<fdroid><repo name=\"Repo\" timestamp=\"1445412480\"/>" +
+            "<application id=\"org.example.other\">" +
+                "<marketversion>9.9</marketversion><apkname>other.apk</apkname>" +
+            "</application>" +
+            "<application id=\"" + PACKAGE + "\">" +
+                "<name>App</name><marketversion>1.2.3</marketversion>" +
+                "<package><version>1.2.3</version><apkname>app_123.apk</apkname></package>" +
+                "<package><version>1.2.2</version><apkname>app_122.apk</apkname></package>" +
+            "</application>" +
+            "<application id=\"org.example.last\"><marketversion>0.1</marketversion></application>" +
+            "</fdroid>";
+
+    @Test
+    public void json_paths_are_followed()
+    {
+        VersionResult vr = _extract(JSON, UpdateSourceEntry.extractor_type.JSON, "versionName", "apks[0].url");
+        assertEquals("1.2.3", vr.get_latest_version());
+        assertEquals("https://example.org/app-1.2.3.apk", vr.get_download_url());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void json_values_are_converted_to_text()
+    {
+        assertEquals("123", _extract(JSON, UpdateSourceEntry.extractor_type.JSON, "versionCode", null).get_latest_version());
+        assertEquals("d", _extract(JSON, UpdateSourceEntry.extractor_type.JSON, "matrix[1][1]", null).get_latest_version());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void json_paths_to_missing_or_composite_values_give_nothing()
+    {
+        String[] paths = { "missing", "changelog", "apks", "apks[5].url", "apks[x].url",
+                "versionName.length", "apks[0", "matrix[0].url" };
+        for (String path : paths) {
+            assertNull(path, _extract(JSON, UpdateSourceEntry.extractor_type.JSON, path, null).get_latest_version());
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void invalid_json_gives_nothing()
+    {
+        VersionResult vr = _extract("<html>Not JSON</html>", UpdateSourceEntry.extractor_type.JSON, "versionName", null);
+        assertNull(vr.get_latest_version());
+        assertNull(vr.get_download_url());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void xml_values_come_from_the_app_element()
+    {
+        VersionResult vr = _extract(XML, UpdateSourceEntry.extractor_type.XML, "marketversion", "apkname");
+        assertEquals("1.2.3", vr.get_latest_version());
+        assertEquals("app_123.apk", vr.get_download_url()); // The first package is the latest.
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void xml_lookup_stops_at_the_end_of_the_app_element()
+    {
+        // <marketversion> exists in other applications, but not <summary>.
+        VersionResult vr = _extract(XML, UpdateSourceEntry.extractor_type.XML, "summary", "marketversion");
+        assertNull(vr.get_latest_version());
+        assertEquals("1.2.3", vr.get_download_url());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void missing_app_gives_nothing()
+    {
+        UpdateSourceEntry entry = _entry(UpdateSourceEntry.extractor_type.XML, "marketversion", "apkname");
+        VersionResult vr = StructuredExtractor.extract(XML, entry, "org.example.missing");
+        assertNull(vr.get_latest_version());
+        assertNull(vr.get_download_url());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void invalid_xml_gives_nothing()
+    {
+        VersionResult vr = _extract("{\"versionName\": \"1.2.3\"}", UpdateSourceEntry.extractor_type.XML, "marketversion", null);
+        assertNull(vr.get_latest_version());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void entry_download_url_takes_precedence()
+    {
+        UpdateSourceEntry entry = _entry(UpdateSourceEntry.extractor_type.JSON, "versionName", "apks[0].url");
+        entry.set_download_url("https://example.org/download/");
+        VersionResult vr = StructuredExtractor.extract(JSON, entry, PACKAGE);
+        assertEquals("1.2.3", vr.get_latest_version());
+        assertEquals("https://example.org/download/", vr.get_download_url());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static VersionResult _extract(String page,
+                                          UpdateSourceEntry.extractor_type type,
+                                          String version_path,
+                                          String download_path)
+    {
+        return StructuredExtractor.extract(page, _entry(type, version_path, download_path), PACKAGE);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static UpdateSourceEntry _entry(UpdateSourceEntry.extractor_type type,
+                                            String version_path,
+                                            String download_path)
+    {
+        UpdateSourceEntry entry = new UpdateSourceEntry(".*");
+        entry.set_extractor(type);
+        entry.set_version_path(version_path);
+        entry.set_download_path(download_path);
+        return entry;
+    }
+}
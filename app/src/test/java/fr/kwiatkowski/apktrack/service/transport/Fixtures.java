@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.transport;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Creates the fixtures served by a <code>ReplayServer</code> during the tests, as if they had
+ * been recorded by the <code>RecordingTransport</code>.
+ */
+public class Fixtures
+{
+    /**
+     * Writes a fixture.
+     * @param directory The directory the server will serve.
+     * @param url The URL of the recorded page.
+     * @param code The HTTP status code of the response.
+     * @param body The body of the response.
+     * @throws IOException If the fixture could not be written.
+     */
+    public static void write(File directory, String url, int code, String body) throws IOException
+    {
+        File f = new File(directory, Fixture.key(url) + Fixture.BODY_EXTENSION);
+        Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+        try {
+            w.write(body);
+        }
+        finally {
+            w.close();
+        }
+        new Fixture(url, code, new LinkedHashMap<String, List<String>>(), f).save_metadata();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.utils;
+
+import fr.kwiatkowski.apktrack.BuildConfig;
+import fr.kwiatkowski.apktrack.model.UpdateSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Walks the <code>CircuitBreaker</code> through its states, against a clock driven by the test.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class CircuitBreakerTest
+{
+    // Wed, 21 Oct 2015 07:28:00 GMT
+    private static final long NOW = 1445412480000L;
+
+    @Before
+    public void set_up()
+    {
+        UpdateSource.initialize_update_sources(RuntimeEnvironment.application);
+        _source = UpdateSource.get_source("F-Droid");
+        _other = UpdateSource.get_source("Xposed Stable");
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void source_stays_available_below_the_threshold()
+    {
+        for (int i = 0 ; i < CircuitBreaker.FAILURE_THRESHOLD - 1 ; ++i)
+        {
+            _breaker.on_failure(_source, null);
+            assertTrue(_breaker.allow_request(_source));
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void source_is_refused_after_the_threshold()
+    {
+        _open();
+        assertFalse(_breaker.allow_request(_source));
+        assertTrue(_breaker.allow_request(_other));
+
+        _clock += CircuitBreaker.MIN_BACKOFF - 1;
+        assertFalse(_breaker.allow_request(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void a_single_trial_is_allowed_after_the_backoff()
+    {
+        _open();
+        _clock += CircuitBreaker.MIN_BACKOFF;
+        assertTrue(_breaker.allow_request(_source));
+        assertFalse(_breaker.allow_request(_source)); // The trial request hasn't completed yet.
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void successful_trial_closes_the_circuit()
+    {
+        _open();
+        _clock += CircuitBreaker.MIN_BACKOFF;
+        assertTrue(_breaker.allow_request(_source));
+        _breaker.on_success(_source);
+        assertTrue(_breaker.allow_request(_source));
+
+        // The failure count starts over.
+        for (int i = 0 ; i < CircuitBreaker.FAILURE_THRESHOLD - 1 ; ++i) {
+            _breaker.on_failure(_source, null);
+        }
+        assertTrue(_breaker.allow_request(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void success_resets_the_failure_count()
+    {
+        for (int i = 0 ; i < CircuitBreaker.FAILURE_THRESHOLD - 1 ; ++i) {
+            _breaker.on_failure(_source, null);
+        }
+        _breaker.on_success(_source);
+        _breaker.on_failure(_source, null);
+        assertTrue(_breaker.allow_request(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void failed_trials_double_the_backoff()
+    {
+        _open();
+        long backoff = CircuitBreaker.MIN_BACKOFF;
+        for (int i = 0 ; i < 3 ; ++i)
+        {
+            _clock += backoff - 1;
+            assertFalse(_breaker.allow_request(_source));
+            _clock += 1;
+            assertTrue(_breaker.allow_request(_source));
+            _breaker.on_failure(_source, null); // The trial fails.
+            backoff *= 2;
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void backoff_is_capped()
+    {
+        _open();
+        long backoff = CircuitBreaker.MIN_BACKOFF;
+        for (int i = 0 ; i < 20 ; ++i)
+        {
+            _clock += backoff;
+            assertTrue(_breaker.allow_request(_source));
+            _breaker.on_failure(_source, null);
+            backoff = Math.min(CircuitBreaker.MAX_BACKOFF, backoff * 2);
+        }
+        assertEquals(CircuitBreaker.MAX_BACKOFF, backoff);
+        _clock += CircuitBreaker.MAX_BACKOFF - 1;
+        assertFalse(_breaker.allow_request(_source));
+        _clock += 1;
+        assertTrue(_breaker.allow_request(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void retry_after_in_seconds_opens_the_circuit_immediately()
+    {
+        _breaker.on_failure(_source, "120");
+        assertFalse(_breaker.allow_request(_source));
+        _clock += 120 * 1000 - 1;
+        assertFalse(_breaker.allow_request(_source));
+        _clock += 1;
+        assertTrue(_breaker.allow_request(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void retry_after_as_a_date()
+    {
+        _breaker.on_failure(_source, "Wed, 21 Oct 2015 07:33:00 GMT");
+        _clock += 5 * 60 * 1000 - 1;
+        assertFalse(_breaker.allow_request(_source));
+        _clock += 1;
+        assertTrue(_breaker.allow_request(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void retry_after_is_capped()
+    {
+        _breaker.on_failure(_source, "999999999");
+        _clock += CircuitBreaker.MAX_RETRY_AFTER;
+        assertTrue(_breaker.allow_request(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void invalid_retry_after_counts_as_a_plain_failure()
+    {
+        _breaker.on_failure(_source, "soon");
+        _breaker.on_failure(_source, "Wed, 21 Oct 2015 07:00:00 GMT"); // In the past
+        assertTrue(_breaker.allow_request(_source));
+        _breaker.on_failure(_source, null);
+        assertFalse(_breaker.allow_request(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Reports enough failures to make the source unavailable.
+     */
+    private void _open()
+    {
+        for (int i = 0 ; i < CircuitBreaker.FAILURE_THRESHOLD ; ++i) {
+            _breaker.on_failure(_source, null);
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final CircuitBreaker _breaker = new CircuitBreaker() {
+        @Override
+        long now() {
+            return _clock;
+        }
+    };
+
+    private long            _clock = NOW;
+    private UpdateSource    _source;
+    private UpdateSource    _other;
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.service.utils;
+
+import fr.kwiatkowski.apktrack.BuildConfig;
+import fr.kwiatkowski.apktrack.model.UpdateSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the delays handed out by the <code>RateLimiter</code>, against a clock driven by the
+ * test.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class RateLimiterTest
+{
+    private static final int DELAY = 200; // Milliseconds
+    private static final long MS = 1000000; // Nanoseconds
+
+    @Before
+    public void set_up()
+    {
+        UpdateSource.initialize_update_sources(RuntimeEnvironment.application);
+        _source = UpdateSource.get_source("F-Droid");
+        _other = UpdateSource.get_source("Xposed Stable");
+        _saved_delays = new int[] { _source.get_request_delay(), _other.get_request_delay() };
+        _source.set_request_delay(DELAY);
+        _other.set_request_delay(DELAY);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @After
+    public void tear_down()
+    {
+        _source.set_request_delay(_saved_delays[0]);
+        _other.set_request_delay(_saved_delays[1]);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void first_request_is_not_delayed() {
+        assertEquals(0, _limiter.reserve(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void back_to_back_requests_are_spaced_out()
+    {
+        assertEquals(0, _limiter.reserve(_source));
+        assertEquals(DELAY, _limiter.reserve(_source));
+        assertEquals(2 * DELAY, _limiter.reserve(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void elapsed_time_is_deducted()
+    {
+        assertEquals(0, _limiter.reserve(_source));
+        _clock += 50 * MS;
+        assertEquals(DELAY - 50, _limiter.reserve(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void idle_source_is_refilled_up_to_the_burst_size()
+    {
+        assertEquals(0, _limiter.reserve(_source));
+        _clock += 10 * DELAY * MS;
+        // The idle time doesn't accumulate more than BURST_SIZE tokens.
+        for (int i = 0 ; i < RateLimiter.BURST_SIZE ; ++i) {
+            assertEquals(0, _limiter.reserve(_source));
+        }
+        assertEquals(DELAY, _limiter.reserve(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void sources_are_throttled_separately()
+    {
+        assertEquals(0, _limiter.reserve(_source));
+        assertEquals(0, _limiter.reserve(_other));
+        assertEquals(DELAY, _limiter.reserve(_source));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void sources_without_a_delay_are_not_throttled()
+    {
+        _source.set_request_delay(0);
+        for (int i = 0 ; i < 10 ; ++i) {
+            assertEquals(0, _limiter.reserve(_source));
+        }
+        assertEquals(0, _limiter.reserve(null));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final RateLimiter _limiter = new RateLimiter() {
+        @Override
+        long now() {
+            return _clock;
+        }
+    };
+
+    private long            _clock = 1000 * MS;
+    private UpdateSource    _source;
+    private UpdateSource    _other;
+    private int[]           _saved_delays;
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core.bench;
+
+import fr.kwiatkowski.apktrack.model.comparator.AlphabeticalComparator;
+import fr.kwiatkowski.apktrack.model.comparator.StatusComparator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the sorting of the app list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComparatorBenchmark
+{
+    @Param({ "200", "2000" })
+    public int apps;
+
+    private List<Datasets.App> _apps;
+    private final AlphabeticalComparator<Datasets.App> _alphabetical = new AlphabeticalComparator<Datasets.App>();
+    private final StatusComparator<Datasets.App> _status = new StatusComparator<Datasets.App>();
+
+    @Setup
+    public void setup() {
+        _apps = Datasets.apps(apps);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public List<Datasets.App> sort_alphabetically()
+    {
+        List<Datasets.App> copy = new ArrayList<Datasets.App>(_apps);
+        Collections.sort(copy, _alphabetical);
+        return copy;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public List<Datasets.App> sort_by_status()
+    {
+        List<Datasets.App> copy = new ArrayList<Datasets.App>(_apps);
+        Collections.sort(copy, _status);
+        return copy;
+    }
+}
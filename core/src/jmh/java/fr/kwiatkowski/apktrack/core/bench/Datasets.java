@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core.bench;
+
+import fr.kwiatkowski.apktrack.model.comparator.SortableApp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the inputs of the benchmarks. Everything is derived from a fixed seed so that the
+ * results of two runs can be compared.
+ */
+final class Datasets
+{
+    static final long SEED = 0x41706b547261636bL;
+
+    /**
+     * The package expressions, names and autoselection conditions of the update sources
+     * shipped in sources.json.
+     */
+    static final String[][] SOURCES = {
+        { "^fr.kwiatkowski.ApkTrack$", "ApkTrack", "CN=JusticeRage" },
+        { "^info.guardianproject|^org.torproject.android$|^org.witness.(sscphase1|informacam.app)$",
+          "Guardian Project", "O=Guardian Project", "O=guardianproject.info" },
+        { "^i2p.bote.android$|^net.i2p.android$", "I2P", "applicable" },
+        { "^org.mozilla.fennec_aurora$", "Firefox Aurora", "applicable" },
+        { "^com.whatsapp$", "WhatsApp", "applicable" },
+        { "^de.schildbach.oeffi$", "Oeffi", "applicable" },
+        { "^de.azapps.mirakelandroid$", "Mirakel", "applicable" },
+        { "^at.bitfire.davdroid.mirakel$", "DAVdroid Mirakel", "applicable" },
+        { "^org.thoughtcrime.securesms$", "Signal",
+          "metadata=org.thoughtcrime.securesms.service.UpdateApkRefreshListener" },
+        { ".*", "ApkTrack Proxy" },
+        { ".*", "Play Store" },
+        { ".*", "F-Droid", "O=fdroid.org", "CN=Ciaran Gultnieks" },
+        { ".*", "Xposed Stable", "CN=rovo89", "metadata=xposedmodule" },
+        { ".*", "Xposed Beta", "CN=rovo89", "metadata=xposedmodule" },
+    };
+
+    // Packages handled by the specific update sources above.
+    private static final String[] KNOWN_PACKAGES = {
+        "fr.kwiatkowski.ApkTrack", "info.guardianproject.otr.app.im", "org.torproject.android",
+        "org.witness.sscphase1", "i2p.bote.android", "net.i2p.android", "org.mozilla.fennec_aurora",
+        "com.whatsapp", "de.schildbach.oeffi", "org.thoughtcrime.securesms" };
+
+    private static final String[] PREFIXES = { "com", "org", "net", "fr", "de", "info", "io" };
+    private static final String[] WORDS = {
+        "android", "google", "mozilla", "app", "mobile", "client", "reader", "music", "player",
+        "camera", "notes", "mail", "maps", "weather", "browser", "games", "social", "wallet",
+        "tasks", "calendar", "keyboard", "launcher", "gallery", "backup", "sync", "vpn" };
+
+    private Datasets() {}
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return Plausible package names. About one in twenty is handled by a specific update
+     * source, like on a typical device.
+     */
+    static List<String> package_names(int count)
+    {
+        Random r = new Random(SEED);
+        List<String> res = new ArrayList<String>(count);
+        for (int i = 0 ; i < count ; ++i)
+        {
+            if (r.nextInt(20) == 0)
+            {
+                res.add(KNOWN_PACKAGES[r.nextInt(KNOWN_PACKAGES.length)]);
+                continue;
+            }
+            StringBuilder sb = new StringBuilder(PREFIXES[r.nextInt(PREFIXES.length)]);
+            for (int j = 1 + r.nextInt(3) ; j > 0 ; --j) {
+                sb.append('.').append(WORDS[r.nextInt(WORDS.length)]);
+            }
+            res.add(sb.toString());
+        }
+        return res;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return Pairs of (installed, latest) version numbers in the formats found in the wild:
+     * dotted numbers, suffixes, build numbers, Play Services style strings...
+     */
+    static List<String[]> version_pairs(int count)
+    {
+        Random r = new Random(SEED);
+        List<String[]> res = new ArrayList<String[]>(count);
+        for (int i = 0 ; i < count ; ++i)
+        {
+            String installed = _version(r);
+            String latest;
+            switch (r.nextInt(4))
+            {
+                case 0:  latest = installed; break;
+                case 1:  latest = _version(r); break;
+                default: latest = _bump(installed, r);
+            }
+            res.add(new String[] { installed, latest });
+        }
+        return res;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return App descriptions to sort, in random order.
+     */
+    static List<App> apps(int count)
+    {
+        Random r = new Random(SEED);
+        List<String> names = package_names(count);
+        List<App> res = new ArrayList<App>(count);
+        for (String name : names)
+        {
+            String label = name.substring(name.lastIndexOf('.') + 1);
+            label = Character.toUpperCase(label.charAt(0)) + label.substring(1) + ' ' + r.nextInt(1000);
+            int status = r.nextInt(10);
+            res.add(new App(label, status == 0, status == 1));
+        }
+        return res;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Generates a page looking like the ones returned by app stores.
+     * @param size The approximate size of the page, in characters.
+     * @param position Where the version number is located, between 0 (top) and 1 (bottom).
+     * @return The contents of the page.
+     */
+    static String page(int size, double position)
+    {
+        Random r = new Random(SEED);
+        StringBuilder sb = new StringBuilder(size + 256);
+        sb.append("<!DOCTYPE html><html><head><title>App details</title></head><body>\n");
+        boolean version_written = false;
+        while (sb.length() < size)
+        {
+            if (!version_written && sb.length() >= size * position)
+            {
+                sb.append("<div class=\"details\"><div itemprop=\"softwareVersion\">")
+                  .append(_version(r)).append("</div></div>\n");
+                version_written = true;
+            }
+            sb.append("<div class=\"review\"><span class=\"author\">")
+              .append(WORDS[r.nextInt(WORDS.length)]).append("</span><p>");
+            for (int j = 10 + r.nextInt(40) ; j > 0 ; --j) {
+                sb.append(WORDS[r.nextInt(WORDS.length)]).append(' ');
+            }
+            sb.append("</p></div>\n");
+        }
+        if (!version_written) {
+            sb.append("<div itemprop=\"softwareVersion\">").append(_version(r)).append("</div>\n");
+        }
+        return sb.append("</body></html>\n").toString();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    static List<String> field_names()
+    {
+        return Arrays.asList("_package_name", "_display_name", "_version", "_latest_version",
+                             "_last_check_date", "_last_check_error", "_is_ignored",
+                             "_download_url", "_update_source", "_system_app", "mCamelCasedField",
+                             "URLField", "id");
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static String _version(Random r)
+    {
+        switch (r.nextInt(5))
+        {
+            case 0:
+                return r.nextInt(10) + "." + r.nextInt(20);
+            case 1:
+                return r.nextInt(10) + "." + r.nextInt(20) + "." + r.nextInt(100);
+            case 2:
+                return r.nextInt(5) + "." + r.nextInt(10) + "." + r.nextInt(10) + "-beta" + r.nextInt(5);
+            case 3: // Google Play Services
+                return r.nextInt(20) + "." + r.nextInt(10) + "." + r.nextInt(100) + " (" +
+                       r.nextInt(1000000) + "-" + r.nextInt(1000000000) + ")";
+            default:
+                return String.valueOf(r.nextInt(2000));
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static String _bump(String version, Random r)
+    {
+        char[] chars = version.toCharArray();
+        for (int i = chars.length - 1 ; i >= 0 ; --i)
+        {
+            if (Character.isDigit(chars[i]) && chars[i] != '9' && r.nextBoolean())
+            {
+                ++chars[i];
+                break;
+            }
+        }
+        return new String(chars);
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class App
+    // --------------------------------------------------------------------------------------------
+
+    static class App implements SortableApp
+    {
+        App(String display_name, boolean update_available, boolean error)
+        {
+            _display_name = display_name;
+            _update_available = update_available;
+            _error = error;
+        }
+
+        @Override public String     get_display_name()      { return _display_name; }
+        @Override public boolean    is_update_available()   { return _update_available; }
+        @Override public boolean    is_last_ckeck_error()   { return _error; }
+
+        private final String    _display_name;
+        private final boolean   _update_available;
+        private final boolean   _error;
+    }
+}
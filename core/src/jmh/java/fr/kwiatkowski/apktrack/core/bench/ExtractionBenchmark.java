@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core.bench;
+
+import fr.kwiatkowski.apktrack.core.WindowScanner;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the extraction of version numbers from pages similar to the ones served by app
+ * stores, either by applying the regular expression to the whole page or by scanning it as it
+ * is read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractionBenchmark
+{
+    @Param({ "16384", "262144", "1048576" })
+    public int page_size;
+
+    // Where the version number is located in the page (0 = top, 1 = bottom).
+    @Param({ "0.1", "0.9" })
+    public double position;
+
+    private static final Pattern VERSION = Pattern.compile("itemprop=\"softwareVersion\">([^<]+?)</div>");
+    private static final Pattern DOWNLOAD = Pattern.compile("href=\"([^\"]+\\.apk)\"");
+    private String _page;
+
+    @Setup
+    public void setup() {
+        _page = Datasets.page(page_size, position);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public String whole_page()
+    {
+        Matcher m = VERSION.matcher(_page);
+        return m.find() ? m.group(1) : null;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public String window_scanner() throws IOException {
+        return new WindowScanner(new Pattern[] { VERSION }, null).scan(new StringReader(_page))[0];
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * The download URL is missing from the page, so the scanner has to read it entirely.
+     */
+    @Benchmark
+    public String window_scanner_missing_pattern() throws IOException {
+        return new WindowScanner(new Pattern[] { VERSION, DOWNLOAD }, null).scan(new StringReader(_page))[0];
+    }
+}
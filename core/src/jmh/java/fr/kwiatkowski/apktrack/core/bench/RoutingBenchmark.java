@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core.bench;
+
+import fr.kwiatkowski.apktrack.core.Autoselection;
+import fr.kwiatkowski.apktrack.core.PackageRouter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how fast the update sources applicable to an app are found, and how fast the
+ * default one is selected.
+ *
+ * <code>naive_routing</code> applies every package expression in turn, which is what
+ * <code>UpdateSource</code> used to do before <code>PackageRouter</code> was introduced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark
+{
+    @Param({ "1000" })
+    public int apps;
+
+    private List<String>        _packages;
+    private List<Pattern>       _patterns;
+    private List<List<String>>  _conditions;
+    private List<String>        _details;
+    private PackageRouter<Integer> _router;
+
+    @Setup
+    public void setup()
+    {
+        _packages = Datasets.package_names(apps);
+        _patterns = new ArrayList<Pattern>();
+        _conditions = new ArrayList<List<String>>();
+        _router = new PackageRouter<Integer>();
+        for (int i = 0 ; i < Datasets.SOURCES.length ; ++i)
+        {
+            String[] source = Datasets.SOURCES[i];
+            _patterns.add(Pattern.compile(source[0]));
+            _conditions.add(Arrays.asList(source).subList(2, source.length));
+            _router.add(source[0], i);
+        }
+        _details = Arrays.asList("CN=Android", "O=Google Inc.", "metadata=com.google.android.gms.version");
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public void naive_routing(Blackhole bh)
+    {
+        for (String p : _packages)
+        {
+            for (int i = 0 ; i < _patterns.size() ; ++i)
+            {
+                if (_patterns.get(i).matcher(p).find()) {
+                    bh.consume(i);
+                }
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public void router(Blackhole bh)
+    {
+        for (String p : _packages) {
+            bh.consume(_router.get(p));
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Finds the default update source of every app, like the update source discovery does.
+     */
+    @Benchmark
+    public void autoselection(Blackhole bh)
+    {
+        for (String p : _packages)
+        {
+            for (Integer i : _router.get(p))
+            {
+                if (Autoselection.matches(_conditions.get(i), _details))
+                {
+                    bh.consume(i);
+                    break;
+                }
+            }
+        }
+    }
+}
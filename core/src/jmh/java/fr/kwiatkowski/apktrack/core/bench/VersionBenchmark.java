@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core.bench;
+
+import fr.kwiatkowski.apktrack.core.Versions;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the comparison of version numbers performed after every check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionBenchmark
+{
+    @Param({ "1000" })
+    public int apps;
+
+    private List<String[]> _pairs;
+
+    @Setup
+    public void setup() {
+        _pairs = Datasets.version_pairs(apps);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public void compare_versions(Blackhole bh)
+    {
+        for (String[] p : _pairs) {
+            bh.consume(Versions.is_update_available("com.example", p[0], p[1]));
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public void compare_play_services_versions(Blackhole bh)
+    {
+        for (String[] p : _pairs) {
+            bh.consume(Versions.is_update_available("com.google.android.gms", p[0], p[1]));
+        }
+    }
+}
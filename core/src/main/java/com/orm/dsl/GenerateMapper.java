@@ -0,0 +1,15 @@
+package com.orm.dsl;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generates a {@code <ClassName>_Mapper} at compile time which saves and loads the entity
+ * without reflection. The persisted fields of the annotated class must not be private.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GenerateMapper {
+}
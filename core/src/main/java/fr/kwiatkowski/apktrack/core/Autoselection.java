@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core;
+
+import java.util.List;
+
+/**
+ * Evaluates the "autoselect_if" conditions of sources.json.
+ *
+ * This is a very primitive DSL. A list of conditions is given in the file, and if any of them
+ * match, the update source is selected. Conditions may be related to the APK's signature
+ * (tests on its CN, O, etc.), metadata present in the manifest or the hardcoded keyword
+ * "applicable", which means that the update source should be used as default for any
+ * applicable packages.
+ */
+public class Autoselection
+{
+    public static final String APPLICABLE = "applicable";
+
+    /**
+     * @param conditions The conditions of an update source applicable to the app.
+     * @param details The details of the APK signature and the metadata of the app. It is an array
+     *                of strings containing information such as ["CN=Name", "metadata=xposedmodule",
+     *                ...].
+     * @return True if any of the conditions is satisfied.
+     */
+    public static boolean matches(List<String> conditions, List<String> details)
+    {
+        if (conditions == null) {
+            return false;
+        }
+        if (conditions.contains(APPLICABLE)) {
+            return true;
+        }
+        for (String detail : details)
+        {
+            if (conditions.contains(detail)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
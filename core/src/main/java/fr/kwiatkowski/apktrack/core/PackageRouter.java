@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Finds the values associated with the package expressions matching a package name, without
+ * going through every regular expression.
+ *
+ * Expressions made of anchored package names (such as <code>^com.foo$</code> or
+ * <code>^com.foo|^org.bar$</code>) are stored in a trie. The other ones are compiled once and
+ * tested in turn.
+ *
+ * @param <T> The type of the values associated with the expressions.
+ */
+public class PackageRouter<T>
+{
+    /**
+     * Associates a value with a package expression. Values are returned in the order in which
+     * they were added.
+     * @param expression A regular expression matching package names.
+     * @param value The value to return for the matching packages.
+     * @throws PatternSyntaxException If the expression is invalid. Nothing is added in that case.
+     */
+    public void add(String expression, T value)
+    {
+        int id = _values.size();
+        if (!_insert_literals(expression, id))
+        {
+            _patterns.add(Pattern.compile(expression));
+            _pattern_ids.add(id);
+        }
+        _values.add(value);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @param package_name The package name to look up.
+     * @return The values whose expression matches the package, in the order in which they were
+     * added.
+     */
+    public List<T> get(String package_name)
+    {
+        BitSet matches = new BitSet(_values.size());
+        _lookup(_root, package_name, 0, matches);
+        for (int i = 0 ; i < _pattern_ids.size() ; ++i)
+        {
+            if (_patterns.get(i).matcher(package_name).find()) {
+                matches.set(_pattern_ids.get(i));
+            }
+        }
+
+        List<T> res = new ArrayList<T>(matches.cardinality());
+        for (int id = matches.nextSetBit(0) ; id >= 0 ; id = matches.nextSetBit(id + 1)) {
+            res.add(_values.get(id));
+        }
+        return res;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Adds every alternative of a package expression to the trie, if they all have the form
+     * <code>^name$</code> or <code>^prefix</code>.
+     * @return False if the expression is too complex to be stored in the trie. Nothing is
+     * inserted in that case.
+     */
+    private boolean _insert_literals(String key, int id)
+    {
+        String[] alternatives = key.split("\\|", -1);
+        for (String alt : alternatives)
+        {
+            if (!_is_literal(alt)) {
+                return false;
+            }
+        }
+
+        for (String alt : alternatives)
+        {
+            boolean exact = alt.endsWith("$");
+            String body = alt.substring(1, exact ? alt.length() - 1 : alt.length());
+            Node n = _root;
+            for (int i = 0 ; i < body.length() ; ++i)
+            {
+                char c = body.charAt(i);
+                if (c == '\\') {
+                    n = n.child(body.charAt(++i)); // Escaped dot: literal character.
+                }
+                else if (c == '.') {
+                    n = n.any(); // Unescaped dot: any character, as in the regular expression.
+                }
+                else {
+                    n = n.child(c);
+                }
+            }
+            n.add(exact, id);
+        }
+        return true;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static boolean _is_literal(String alt)
+    {
+        if (alt.length() < 2 || alt.charAt(0) != '^') {
+            return false;
+        }
+        int end = alt.endsWith("$") ? alt.length() - 1 : alt.length();
+        for (int i = 1 ; i < end ; ++i)
+        {
+            char c = alt.charAt(i);
+            if (c == '\\' && i + 1 < end && alt.charAt(i + 1) == '.') {
+                ++i;
+            }
+            else if (!(Character.isLetterOrDigit(c) || c == '_' || c == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static void _lookup(Node n, String package_name, int pos, BitSet matches)
+    {
+        if (n.prefix != null) {
+            matches.or(n.prefix);
+        }
+        if (pos == package_name.length())
+        {
+            if (n.exact != null) {
+                matches.or(n.exact);
+            }
+            return;
+        }
+        if (n.children != null)
+        {
+            Node child = n.children.get(package_name.charAt(pos));
+            if (child != null) {
+                _lookup(child, package_name, pos + 1, matches);
+            }
+        }
+        if (n.any != null) {
+            _lookup(n.any, package_name, pos + 1, matches);
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class Node
+    // --------------------------------------------------------------------------------------------
+
+    private static class Node
+    {
+        Node child(char c)
+        {
+            if (children == null) {
+                children = new HashMap<Character, Node>();
+            }
+            Node n = children.get(c);
+            if (n == null)
+            {
+                n = new Node();
+                children.put(c, n);
+            }
+            return n;
+        }
+
+        Node any()
+        {
+            if (any == null) {
+                any = new Node();
+            }
+            return any;
+        }
+
+        void add(boolean is_exact, int id)
+        {
+            if (is_exact)
+            {
+                if (exact == null) {
+                    exact = new BitSet();
+                }
+                exact.set(id);
+            }
+            else
+            {
+                if (prefix == null) {
+                    prefix = new BitSet();
+                }
+                prefix.set(id);
+            }
+        }
+
+        Map<Character, Node>    children = null;
+        Node                    any = null;     // Child reached by an unescaped '.'
+        BitSet                  exact = null;   // Values whose expression ends here with '$'
+        BitSet                  prefix = null;  // Values whose expression ends here without '$'
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final Node          _root = new Node();
+    private final List<T>       _values = new ArrayList<T>();
+    private final List<Pattern> _patterns = new ArrayList<Pattern>();
+    private final List<Integer> _pattern_ids = new ArrayList<Integer>();
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core;
+
+/**
+ * Compares version numbers.
+ */
+public class Versions
+{
+    /**
+     * Checks whether a version is older than another one.
+     * A simple string comparison is not sufficient, because their structure may vary
+     * (i.e. 1.1 and 1.2.0). Version numbers are split into tokens which are compared one by one,
+     * numerically if possible.
+     * @param package_name The package name of the app (some apps need special handling).
+     * @param version The installed version.
+     * @param latest_version The latest version available.
+     * @return True if <code>latest_version</code> is more recent than <code>version</code>.
+     */
+    public static boolean is_update_available(String package_name, String version, String latest_version)
+    {
+        String original_version = version;
+        String original_latest = latest_version;
+
+        // Special handling for Google Play Services: ignore the device-specific string.
+        if ("com.google.android.gms".equals(package_name))
+        {
+            version = version.split(" ")[0];
+            latest_version = latest_version.split(" ")[0];
+        }
+
+        // Split the version number into tokens
+        String[] tokens_version = version.split("[., -]");
+        String[] tokens_latest = latest_version.split("[., -]");
+
+        // Version numbers don't even have the same structure. Revert to lexicographical comparison.
+        if (tokens_version.length != tokens_latest.length) {
+            return original_version.compareTo(original_latest) < 0;
+        }
+
+        // Compare tokens one by one.
+        for (int i = 0 ; i < tokens_version.length ; ++i)
+        {
+            try
+            {
+                int t1 = Integer.parseInt(tokens_version[i]);
+                int t2 = Integer.parseInt(tokens_latest[i]);
+                if (t1 != t2) { // Different tokens. We've hit a version mismatch.
+                    return t1 < t2;
+                }
+                // Otherwise (identical tokens), go on to the next token.
+            }
+            catch (NumberFormatException ignored)
+            {
+                // Tokens are not simple numbers. Fall back to lexicographical comparison.
+                int result = tokens_version[i].compareTo(tokens_latest[i]);
+                if (result != 0) {
+                    return result < 0; // True iff tokens_version[i] < tokens_latest[i]
+                }
+            }
+        }
+        return false; // All the tokens are identical: the two versions are the same.
+    }
+}
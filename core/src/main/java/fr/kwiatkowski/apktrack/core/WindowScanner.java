@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies a set of regular expressions to a document while it is being read.
+ *
+ * The document is scanned through a sliding window, and reading stops as soon as every pattern
+ * has matched. The window always retains the last <code>OVERLAP</code> characters read.
+ * Characters before those are only discarded if no match of a pending pattern may start
+ * there, so a match is found wherever it is and whatever its length.
+ *
+ * The downside is that a pattern which starts matching but doesn't complete (such as
+ * <code>Stable &lt;i&gt;.*?a href="(.*?\.apk)"</code> once "Stable &lt;i&gt;" has been read)
+ * holds the rest of the document in the window, which is scanned again after every chunk.
+ * Callers must bound the size of the documents they read.
+ */
+public class WindowScanner
+{
+    // Number of characters read before the regular expressions are applied again.
+    public static final int CHUNK_SIZE = 8192;
+    // Number of characters carried over from one scan to the next.
+    public static final int OVERLAP = 8192;
+
+    /**
+     * @param patterns The patterns to look for. The value extracted for each of them is the
+     *                 contents of its first group. Null patterns are ignored.
+     * @param not_found A pattern which, when present in the document, indicates that it doesn't
+     *                  contain the requested information (may be null).
+     */
+    public WindowScanner(Pattern[] patterns, Pattern not_found)
+    {
+        _patterns = patterns.clone();
+        _probes = new Pattern[patterns.length];
+        _prefixes = new String[patterns.length];
+        for (int i = 0 ; i < patterns.length ; ++i) {
+            _prefixes[i] = patterns[i] == null ? null : _literal_prefix(patterns[i]);
+        }
+        _not_found = not_found;
+        _results = new String[patterns.length];
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the document until all the patterns have matched or the end of the stream is
+     * reached.
+     * @param in The contents of the document.
+     * @return The first group of each pattern, in the order they were given. Patterns which
+     * didn't match have a null value.
+     * @throws FileNotFoundException If the <code>not_found</code> pattern was found.
+     * @throws IOException If the document could not be read.
+     */
+    public String[] scan(Reader in) throws IOException
+    {
+        char[] buffer = new char[CHUNK_SIZE];
+        boolean eof = false;
+        int unscanned = 0;
+        while (!eof)
+        {
+            int read = in.read(buffer, 0, buffer.length);
+            if (read < 0) {
+                eof = true;
+            }
+            else
+            {
+                _window.append(buffer, 0, read);
+                unscanned += read;
+                if (unscanned < CHUNK_SIZE) {
+                    continue; // Wait for a full chunk before scanning again.
+                }
+            }
+            unscanned = 0;
+
+            int keep_from = _scan(eof);
+            if (_remaining == 0)
+            {
+                _stopped_early = !eof;
+                break;
+            }
+            _window.delete(0, Math.min(keep_from, Math.max(0, _window.length() - OVERLAP)));
+        }
+        return _results;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return Whether reading was interrupted before the end of the document.
+     */
+    public boolean is_stopped_early() {
+        return _stopped_early;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return The characters left in the window once scanning is over, i.e. the end of the
+     * document if some patterns didn't match.
+     */
+    public CharSequence get_window() {
+        return _window;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Applies the patterns which haven't matched yet to the window. Patterns which match are
+     * set to null.
+     * @param eof Whether the end of the document has been reached.
+     * @return The index of the first character which must remain in the window because a
+     * pattern may be in the middle of a match.
+     * @throws FileNotFoundException If the <code>not_found</code> pattern was found.
+     */
+    private int _scan(boolean eof) throws FileNotFoundException
+    {
+        int keep_from = _window.length();
+        // The end of the window is kept anyway: there is no need to look for matches there.
+        int trimmable = Math.max(0, _window.length() - OVERLAP);
+        if (_not_found != null && _not_found.matcher(_window).find()) {
+            throw new FileNotFoundException();
+        }
+
+        _remaining = 0;
+        for (int i = 0 ; i < _patterns.length ; ++i)
+        {
+            if (_patterns[i] == null) {
+                continue;
+            }
+            Matcher m = _patterns[i].matcher(_window);
+            boolean found = m.find();
+            if (found && (eof || !m.hitEnd()))
+            {
+                _results[i] = m.group(1);
+                _patterns[i] = null;
+                continue;
+            }
+            else if (found) { // More input could change the match: keep it in the window.
+                keep_from = Math.min(keep_from, m.start());
+            }
+            else if (!eof) {
+                keep_from = Math.min(keep_from, _partial_match_start(i, m, Math.min(keep_from, trimmable)));
+            }
+            ++_remaining;
+        }
+        return keep_from;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * Looks for a match which could still complete once more characters are read. A failed
+     * <code>find()</code> always reports that it hit the end of the input, so the starting
+     * positions have to be tried separately. If every match starts with the same characters,
+     * only the positions where they appear are tried. Otherwise, blocks of
+     * <code>OVERLAP</code> positions are tested at once with a probe pattern skipping up to
+     * that many characters, and positions are only tried one by one in a block where a partial
+     * match was detected.
+     * @param index The index of the pattern.
+     * @param m A matcher whose pattern has no match in the window.
+     * @param limit The position after which matches don't need to be looked for.
+     * @return The position of the first partial match, or <code>limit</code> if there is none.
+     */
+    private int _partial_match_start(int index, Matcher m, int limit)
+    {
+        if (limit == 0) {
+            return 0;
+        }
+        m.useTransparentBounds(true).useAnchoringBounds(false);
+
+        String prefix = _prefixes[index];
+        if (prefix != null)
+        {
+            for (int i = _window.indexOf(prefix) ; i >= 0 && i < limit ; i = _window.indexOf(prefix, i + 1))
+            {
+                m.region(i, _window.length());
+                if (m.lookingAt() || m.hitEnd()) {
+                    return i;
+                }
+            }
+            return limit;
+        }
+
+        if (_probes[index] == null)
+        {
+            Pattern p = _patterns[index];
+            boolean literal = (p.flags() & Pattern.LITERAL) != 0;
+            _probes[index] = Pattern.compile("[\\s\\S]{0," + OVERLAP + "}?(?:" +
+                                             (literal ? Pattern.quote(p.pattern()) : p.pattern()) + ")",
+                                             p.flags() & ~Pattern.LITERAL);
+        }
+        Matcher probe = _probes[index].matcher(_window).useTransparentBounds(true).useAnchoringBounds(false);
+
+        // The probe never reaches the end of the window by itself, as limit <= length - OVERLAP.
+        for (int block = 0 ; block < limit ; block += OVERLAP + 1)
+        {
+            probe.region(block, _window.length());
+            if (!probe.lookingAt() && !probe.hitEnd()) {
+                continue;
+            }
+            for (int i = block ; i < Math.min(limit, block + OVERLAP + 1) ; ++i)
+            {
+                m.region(i, _window.length());
+                if (m.lookingAt() || m.hitEnd()) {
+                    return i;
+                }
+            }
+        }
+        return limit;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * @return The characters every match of a pattern starts with, or null if they can't be
+     * determined simply.
+     */
+    private static String _literal_prefix(Pattern p)
+    {
+        String expression = p.pattern();
+        if ((p.flags() & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.LITERAL | Pattern.CANON_EQ)) != 0 ||
+            expression.indexOf('|') >= 0)
+        {
+            return null;
+        }
+        int end = 0;
+        while (end < expression.length() && "\\^$.|?*+()[]{}".indexOf(expression.charAt(end)) < 0) {
+            ++end;
+        }
+        if (end < expression.length() && "?*+{".indexOf(expression.charAt(end)) >= 0) {
+            --end; // The quantifier applies to the last character.
+        }
+        // Longer prefixes could be cut by the end of the window.
+        return end > 0 && end <= OVERLAP ? expression.substring(0, end) : null;
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private final Pattern[]     _patterns;
+    private final Pattern[]     _probes;    // See _partial_match_start.
+    private final String[]      _prefixes;
+    private final Pattern       _not_found;
+    private final String[]      _results;
+    private final StringBuilder _window = new StringBuilder(CHUNK_SIZE + OVERLAP);
+    private int                 _remaining = 0;
+    private boolean             _stopped_early = false;
+}
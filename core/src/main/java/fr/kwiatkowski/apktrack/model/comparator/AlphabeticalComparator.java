@@ -17,8 +17,6 @@
 
 package fr.kwiatkowski.apktrack.model.comparator;
 
-import fr.kwiatkowski.apktrack.model.InstalledApp;
-
 import java.text.Collator;
 import java.util.Comparator;
 import java.util.Locale;
@@ -26,7 +24,7 @@ import java.util.Locale;
 /**
  * Sorts application in alphabetical order
  */
-public class AlphabeticalComparator implements Comparator<InstalledApp>
+public class AlphabeticalComparator<T extends SortableApp> implements Comparator<T>
 {
     static Collator collator;
 
@@ -37,7 +35,7 @@ public class AlphabeticalComparator implements Comparator<InstalledApp>
         collator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
     }
 
-    public int compare(InstalledApp a1, InstalledApp a2)
+    public int compare(T a1, T a2)
     {
         return collator.compare(a1.get_display_name(), a2.get_display_name());
     }
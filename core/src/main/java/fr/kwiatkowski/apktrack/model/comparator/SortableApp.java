@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.model.comparator;
+
+/**
+ * The properties of an app which are used to sort the app list. Kept separate from
+ * <code>InstalledApp</code> so that the comparators don't depend on the persistence layer.
+ */
+public interface SortableApp
+{
+    String get_display_name();
+    boolean is_update_available();
+    boolean is_last_ckeck_error();
+}
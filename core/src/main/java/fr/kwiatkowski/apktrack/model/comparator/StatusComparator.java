@@ -17,19 +17,18 @@
 
 package fr.kwiatkowski.apktrack.model.comparator;
 
-import fr.kwiatkowski.apktrack.model.InstalledApp;
 import java.util.Comparator;
 
 /**
  * Sorts applications based on their status (updated / not updated / error) and
  * then their alphabetical order.
  */
-public class StatusComparator implements Comparator<InstalledApp>
+public class StatusComparator<T extends SortableApp> implements Comparator<T>
 {
-    static AlphabeticalComparator alphabetical_comparator = new AlphabeticalComparator();
+    static AlphabeticalComparator<SortableApp> alphabetical_comparator = new AlphabeticalComparator<SortableApp>();
 
     @Override
-    public int compare(InstalledApp a1, InstalledApp a2)
+    public int compare(T a1, T a2)
     {
         // a1 can be updated but not a2: a1 is "smaller" (goes on top in ascending order).
         if (a1.is_update_available() && !a2.is_update_available()) {
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AutoselectionTest
+{
+    @Test
+    public void sources_without_conditions_are_not_selected() {
+        assertFalse(Autoselection.matches(null, Arrays.asList("CN=Name", "metadata=xposedmodule")));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void applicable_sources_are_always_selected() {
+        assertTrue(Autoselection.matches(Arrays.asList("O=Other", Autoselection.APPLICABLE),
+                                         Collections.<String>emptyList()));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void any_matching_detail_selects_the_source()
+    {
+        assertTrue(Autoselection.matches(Arrays.asList("CN=Someone", "metadata=xposedmodule"),
+                                         Arrays.asList("CN=Name", "metadata=xposedmodule")));
+        assertFalse(Autoselection.matches(Arrays.asList("CN=Someone", "O=Other"),
+                                          Arrays.asList("CN=Name", "metadata=xposedmodule")));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PackageRouterTest
+{
+    @Test
+    public void anchored_names_match_exactly()
+    {
+        PackageRouter<String> router = new PackageRouter<String>();
+        router.add("^com\\.foo$", "foo");
+        assertEquals(Collections.singletonList("foo"), router.get("com.foo"));
+        assertEquals(Collections.<String>emptyList(), router.get("com.foobar"));
+        assertEquals(Collections.<String>emptyList(), router.get("com.fo"));
+        assertEquals(Collections.<String>emptyList(), router.get("comxfoo"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void expressions_without_end_anchor_match_prefixes()
+    {
+        PackageRouter<String> router = new PackageRouter<String>();
+        router.add("^com\\.foo", "foo");
+        assertEquals(Collections.singletonList("foo"), router.get("com.foo"));
+        assertEquals(Collections.singletonList("foo"), router.get("com.foobar.baz"));
+        assertEquals(Collections.<String>emptyList(), router.get("org.com.foo"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void unescaped_dots_match_any_character()
+    {
+        PackageRouter<String> router = new PackageRouter<String>();
+        router.add("^com.foo$", "foo");
+        assertEquals(Collections.singletonList("foo"), router.get("com.foo"));
+        assertEquals(Collections.singletonList("foo"), router.get("comxfoo"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void values_are_returned_in_insertion_order()
+    {
+        PackageRouter<Integer> router = new PackageRouter<Integer>();
+        router.add(".*", 0);                    // Regular expression
+        router.add("^com\\.foo$|^org\\.", 1);   // Trie
+        router.add("foo$", 2);                  // Regular expression
+        router.add("^com\\.", 3);               // Trie
+        assertEquals(Arrays.asList(0, 1, 2, 3), router.get("com.foo"));
+        assertEquals(Arrays.asList(0, 1), router.get("org.bar"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void invalid_expressions_are_rejected()
+    {
+        PackageRouter<String> router = new PackageRouter<String>();
+        try
+        {
+            router.add("^com.(foo", "invalid");
+            fail("The expression should have been rejected.");
+        }
+        catch (PatternSyntaxException ignored) {}
+        router.add("^com\\.foo", "foo");
+        assertEquals(Collections.singletonList("foo"), router.get("com.foo"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * The router must return the same values as applying every expression in turn.
+     */
+    @Test
+    public void results_match_the_regular_expressions()
+    {
+        List<String> expressions = Arrays.asList(
+                "^com\\.foo$", "^com\\.foo", "^com.foo$", "^org\\.fdroid\\.fdroid$|^org\\.fdroid\\.",
+                "^de\\.robv\\.android\\.xposed\\.installer$", "^eu.", ".*", "xposed", "^(com|org)\\.bar$",
+                "^a$|b$", "^_private1$");
+        List<String> packages = Arrays.asList(
+                "com.foo", "com.foobar", "comxfoo", "org.fdroid.fdroid", "org.fdroid.fdroid.privileged",
+                "de.robv.android.xposed.installer", "eu.chainfire.supersu", "com.bar", "org.bar",
+                "net.bar", "a", "ab", "_private1", "", "com.fo");
+
+        PackageRouter<String> router = new PackageRouter<String>();
+        for (String e : expressions) {
+            router.add(e, e);
+        }
+        for (String p : packages)
+        {
+            List<String> expected = new ArrayList<String>();
+            for (String e : expressions)
+            {
+                if (Pattern.compile(e).matcher(p).find()) {
+                    expected.add(e);
+                }
+            }
+            assertEquals("Routes of \"" + p + "\"", expected, router.get(p));
+        }
+    }
+}
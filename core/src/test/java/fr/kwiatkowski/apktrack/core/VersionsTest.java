@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VersionsTest
+{
+    @Test
+    public void numeric_tokens_are_compared_as_numbers()
+    {
+        assertTrue(Versions.is_update_available("p", "1.9", "1.10"));
+        assertFalse(Versions.is_update_available("p", "1.10", "1.9"));
+        assertTrue(Versions.is_update_available("p", "2.0.9", "2.1.0"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void identical_versions_are_not_updates()
+    {
+        assertFalse(Versions.is_update_available("p", "1.2.3", "1.2.3"));
+        assertFalse(Versions.is_update_available("p", "1.0-beta", "1.0-beta"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void other_tokens_are_compared_lexicographically()
+    {
+        assertTrue(Versions.is_update_available("p", "1.0-beta", "1.0-rc"));
+        assertFalse(Versions.is_update_available("p", "1.0 rc", "1.0 beta"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void versions_with_different_structures_are_compared_as_strings()
+    {
+        assertTrue(Versions.is_update_available("p", "1.1", "1.2.0"));
+        assertFalse(Versions.is_update_available("p", "1.2.0", "1.1"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void play_services_ignore_the_device_specific_part()
+    {
+        assertFalse(Versions.is_update_available("com.google.android.gms",
+                                                 "11.5.09 (230-164)", "11.5.09 (440-164)"));
+        assertTrue(Versions.is_update_available("com.google.android.gms",
+                                                "11.5.09 (230-164)", "11.7.45 (230-172)"));
+        // Other apps don't get this treatment.
+        assertTrue(Versions.is_update_available("p", "11.5.09 (230-164)", "11.5.09 (440-164)"));
+    }
+}
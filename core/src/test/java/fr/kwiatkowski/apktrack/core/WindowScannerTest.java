@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.core;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class WindowScannerTest
+{
+    private static final Pattern VERSION = Pattern.compile("<version>([^<]+?)</version>");
+    private static final Pattern APK = Pattern.compile("<apk>([^<]+?)</apk>");
+    private static final Pattern NOT_FOUND = Pattern.compile("<p>Application not found</p>");
+
+    @Test
+    public void reading_stops_once_every_pattern_matched() throws IOException
+    {
+        String page = "<version>1.2.3</version><apk>app.apk</apk>" + _filler(10 * WindowScanner.CHUNK_SIZE);
+        CountingReader in = new CountingReader(page);
+        WindowScanner scanner = new WindowScanner(new Pattern[] { VERSION, APK }, null);
+
+        assertArrayEquals(new String[] { "1.2.3", "app.apk" }, scanner.scan(in));
+        assertTrue(scanner.is_stopped_early());
+        assertTrue(in.read < page.length());
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void matches_across_chunks_are_found() throws IOException
+    {
+        for (int offset = -30 ; offset <= 30 ; offset += 5)
+        {
+            int position = 2 * WindowScanner.CHUNK_SIZE + offset;
+            String page = _filler(position) + "<version>1.2.3</version>" + _filler(4 * WindowScanner.CHUNK_SIZE);
+            WindowScanner scanner = new WindowScanner(new Pattern[] { VERSION }, null);
+            assertArrayEquals("Match at " + position, new String[] { "1.2.3" },
+                              scanner.scan(new StringReader(page)));
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void matches_longer_than_the_overlap_are_found() throws IOException
+    {
+        // With and without a literal prefix, which are looked for differently.
+        Pattern[] patterns = { Pattern.compile("Stable <i>.*?a href=\"(.*?\\.apk)\""),
+                               Pattern.compile("(?:Stable|Beta) <i>.*?a href=\"(.*?\\.apk)\"") };
+        for (Pattern stable : patterns)
+        {
+            for (int position : new int[] { 100, WindowScanner.CHUNK_SIZE - 5, 3 * WindowScanner.CHUNK_SIZE })
+            {
+                // A single minified line: the match spans several chunks.
+                String page = _line(position) + "Stable <i>v89</i>" + _line(3 * WindowScanner.OVERLAP) +
+                              "<a href=\"XposedInstaller_3.1.5.apk\">" + _line(4 * WindowScanner.CHUNK_SIZE);
+                WindowScanner scanner = new WindowScanner(new Pattern[] { stable }, null);
+                assertArrayEquals(stable + " at " + position, new String[] { "XposedInstaller_3.1.5.apk" },
+                                  scanner.scan(new StringReader(page)));
+                assertTrue(scanner.is_stopped_early());
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void the_window_does_not_grow_without_partial_matches() throws IOException
+    {
+        String page = _filler(20 * WindowScanner.CHUNK_SIZE);
+        Pattern release = Pattern.compile("(?:Version|Release): ([^<]+)<");
+        WindowScanner scanner = new WindowScanner(new Pattern[] { VERSION, APK, release }, null);
+        scanner.scan(new StringReader(page));
+        assertTrue(scanner.get_window().length() <= WindowScanner.CHUNK_SIZE + WindowScanner.OVERLAP);
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void missing_values_are_null() throws IOException
+    {
+        String page = "<version>1.2.3</version>" + _filler(3 * WindowScanner.CHUNK_SIZE) + "<footer/>";
+        WindowScanner scanner = new WindowScanner(new Pattern[] { VERSION, APK, null }, null);
+
+        assertArrayEquals(new String[] { "1.2.3", null, null }, scanner.scan(new StringReader(page)));
+        assertFalse(scanner.is_stopped_early());
+        assertTrue(scanner.get_window().toString().endsWith("<footer/>"));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test
+    public void short_documents_are_scanned() throws IOException
+    {
+        WindowScanner scanner = new WindowScanner(new Pattern[] { VERSION }, null);
+        assertArrayEquals(new String[] { "1.2.3" }, scanner.scan(new StringReader("<version>1.2.3</version>")));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    @Test(expected = FileNotFoundException.class)
+    public void not_found_pages_are_reported() throws IOException
+    {
+        String page = _filler(WindowScanner.CHUNK_SIZE) + "<p>Application not found</p>";
+        new WindowScanner(new Pattern[] { VERSION }, NOT_FOUND).scan(new StringReader(page));
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static String _filler(int length)
+    {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append("<p>Lorem ipsum dolor sit amet.</p>\n");
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    // --------------------------------------------------------------------------------------------
+
+    private static String _line(int length)
+    {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append("<div class=\"row\"><span>Lorem ipsum</span></div>");
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class CountingReader
+    // --------------------------------------------------------------------------------------------
+
+    private static class CountingReader extends StringReader
+    {
+        CountingReader(String s) {
+            super(s);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException
+        {
+            int res = super.read(buffer, offset, length);
+            if (res > 0) {
+                read += res;
+            }
+            return res;
+        }
+
+        int read = 0;
+    }
+}
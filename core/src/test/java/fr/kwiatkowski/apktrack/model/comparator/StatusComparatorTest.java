@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015
+ *
+ * ApkTrack is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ApkTrack is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ApkTrack.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.kwiatkowski.apktrack.model.comparator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class StatusComparatorTest
+{
+    @Test
+    public void updates_come_first_and_errors_last()
+    {
+        List<App> apps = new ArrayList<App>(Arrays.asList(
+                new App("Zeta", false, true),
+                new App("beta", false, false),
+                new App("Delta", true, false),
+                new App("alpha", false, true),
+                new App("Gamma", false, false),
+                new App("Alpha", true, true)));
+        Collections.sort(apps, new StatusComparator<App>());
+
+        List<String> names = new ArrayList<String>();
+        for (App a : apps) {
+            names.add(a.get_display_name());
+        }
+        assertEquals(Arrays.asList("Alpha", "Delta", "beta", "Gamma", "alpha", "Zeta"), names);
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // Inner class App
+    // --------------------------------------------------------------------------------------------
+
+    private static class App implements SortableApp
+    {
+        App(String name, boolean update_available, boolean error)
+        {
+            _name = name;
+            _update_available = update_available;
+            _error = error;
+        }
+
+        @Override
+        public String get_display_name() {
+            return _name;
+        }
+
+        @Override
+        public boolean is_update_available() {
+            return _update_available;
+        }
+
+        @Override
+        public boolean is_last_ckeck_error() {
+            return _error;
+        }
+
+        private final String    _name;
+        private final boolean   _update_available;
+        private final boolean   _error;
+    }
+}
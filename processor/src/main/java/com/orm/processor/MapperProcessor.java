@@ -0,0 +1,385 @@
+package com.orm.processor;
+
+import com.orm.dsl.Column;
+import com.orm.dsl.GenerateMapper;
+import com.orm.dsl.Ignore;
+import com.orm.dsl.Table;
+import com.orm.util.NamingHelper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a {@code com.orm.EntityMapper} for every class annotated with
+ * {@link GenerateMapper}. The mapper is placed in the package of the entity, which allows it
+ * to access its non-private fields directly, and follows the same conventions as
+ * {@code com.orm.util.ReflectionUtil} for the column names and the stored values.
+ */
+@SupportedAnnotationTypes("com.orm.dsl.GenerateMapper")
+public class MapperProcessor extends AbstractProcessor {
+
+    private static final String SUGAR_RECORD = "com.orm.SugarRecord";
+    private static final String MAPPER_SUFFIX = "_Mapper";
+
+    /**
+     * The types which can be stored by a generated mapper.
+     */
+    enum Kind {
+        BOOLEAN, SHORT, INT, LONG, FLOAT, DOUBLE, STRING, DATE, BLOB
+    }
+
+    static class Property {
+        String field;
+        String column;
+        String type;
+        Kind kind;
+        boolean primitive;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateMapper.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@GenerateMapper can only be applied to classes");
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            List<Property> properties = collectProperties(type);
+            if (properties == null) {
+                continue;
+            }
+            try {
+                write(type, properties);
+            } catch (IOException e) {
+                error(type, "Could not write the mapper: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The persisted fields of the entity, or null if a mapper cannot be generated for it.
+     */
+    private List<Property> collectProperties(TypeElement type) {
+        boolean valid = true;
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL || type.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(type, "Mappers can only be generated for concrete top-level classes");
+            valid = false;
+        }
+        if (!hasNoArgConstructor(type)) {
+            error(type, "Entities need a non-private constructor without arguments");
+            valid = false;
+        }
+
+        String packageName = getPackage(type).getQualifiedName().toString();
+        boolean idFound = isSugarRecord(type);
+        List<Property> properties = new ArrayList<Property>();
+        for (TypeElement t = type; t != null && !isFrameworkClass(t); t = getSuperclass(t)) {
+            for (VariableElement field : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT) ||
+                        field.getAnnotation(Ignore.class) != null) {
+                    continue;
+                }
+
+                boolean accessible = modifiers.contains(Modifier.PUBLIC) ||
+                        (!modifiers.contains(Modifier.PRIVATE) &&
+                                getPackage(t).getQualifiedName().contentEquals(packageName));
+                if (!accessible || modifiers.contains(Modifier.FINAL)) {
+                    error(field, "Fields saved by a generated mapper must be visible from " + packageName +
+                            " and not final");
+                    valid = false;
+                    continue;
+                }
+
+                Property p = new Property();
+                p.field = field.getSimpleName().toString();
+                Column column = field.getAnnotation(Column.class);
+                p.column = column != null ? column.name() : NamingHelper.toSQLNameDefault(p.field);
+                p.type = field.asType().toString();
+                p.primitive = field.asType().getKind().isPrimitive();
+                p.kind = getKind(field.asType());
+                if (p.kind == null) {
+                    error(field, "Unsupported column type " + p.type + ": remove @GenerateMapper to use reflection");
+                    valid = false;
+                    continue;
+                }
+                if (p.column.equalsIgnoreCase("id")) {
+                    if (p.kind != Kind.LONG) {
+                        error(field, "The id of an entity must be a long");
+                        valid = false;
+                    }
+                    idFound = true;
+                    properties.add(0, p); // The id is always the first column.
+                } else {
+                    properties.add(p);
+                }
+            }
+        }
+
+        if (!idFound) {
+            error(type, "Entities which don't extend SugarRecord need an id field");
+            valid = false;
+        }
+        return valid ? properties : null;
+    }
+
+    private Kind getKind(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN: return Kind.BOOLEAN;
+            case SHORT: return Kind.SHORT;
+            case INT: return Kind.INT;
+            case LONG: return Kind.LONG;
+            case FLOAT: return Kind.FLOAT;
+            case DOUBLE: return Kind.DOUBLE;
+            case ARRAY:
+                return type.toString().equals("byte[]") ? Kind.BLOB : null;
+            case DECLARED:
+                String name = type.toString();
+                if (name.equals("java.lang.Boolean")) return Kind.BOOLEAN;
+                if (name.equals("java.lang.Short")) return Kind.SHORT;
+                if (name.equals("java.lang.Integer")) return Kind.INT;
+                if (name.equals("java.lang.Long")) return Kind.LONG;
+                if (name.equals("java.lang.Float")) return Kind.FLOAT;
+                if (name.equals("java.lang.Double")) return Kind.DOUBLE;
+                if (name.equals("java.lang.String")) return Kind.STRING;
+                if (name.equals("java.util.Date")) return Kind.DATE;
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private void write(TypeElement type, List<Property> properties) throws IOException {
+        String packageName = getPackage(type).getQualifiedName().toString();
+        String entity = type.getSimpleName().toString();
+        String mapper = entity + MAPPER_SUFFIX;
+        boolean sugarRecord = isSugarRecord(type);
+        if (sugarRecord) {
+            properties.add(0, null); // Accessed through getId() and setId().
+        }
+
+        Table table = type.getAnnotation(Table.class);
+        String tableName = table != null && !table.name().isEmpty() ? table.name() : NamingHelper.toSQLNameDefault(entity);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("// Generated by ").append(MapperProcessor.class.getName()).append(". Do not edit.\n");
+        if (!packageName.isEmpty()) {
+            sb.append("package ").append(packageName).append(";\n\n");
+        }
+        sb.append("import android.database.Cursor;\n");
+        sb.append("import android.database.sqlite.SQLiteStatement;\n");
+        sb.append("import com.orm.EntityMapper;\n\n");
+        sb.append("public final class ").append(mapper).append(" implements EntityMapper<").append(entity).append("> {\n\n");
+
+        sb.append("    private static final String[] COLUMNS = {");
+        for (int i = 0; i < properties.size(); i++) {
+            sb.append(i > 0 ? ", " : "").append('"').append(i == 0 ? "ID" : properties.get(i).column).append('"');
+        }
+        sb.append("};\n\n");
+
+        sb.append("    @Override\n");
+        sb.append("    public String getTableName() {\n");
+        sb.append("        return \"").append(tableName).append("\";\n");
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n");
+        sb.append("    public String[] getColumnNames() {\n");
+        sb.append("        return COLUMNS;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n");
+        sb.append("    public ").append(entity).append(" newInstance() {\n");
+        sb.append("        return new ").append(entity).append("();\n");
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n");
+        sb.append("    public Long getId(").append(entity).append(" object) {\n");
+        sb.append("        return object.").append(sugarRecord ? "getId()" : properties.get(0).field).append(";\n");
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n");
+        sb.append("    public void bind(").append(entity).append(" object, SQLiteStatement statement) {\n");
+        for (int i = 1; i < properties.size(); i++) {
+            writeBind(sb, properties.get(i), i);
+        }
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n");
+        sb.append("    public void inflate(Cursor cursor, int[] columns, ").append(entity).append(" object) {\n");
+        sb.append("        int index;\n");
+        if (sugarRecord) {
+            sb.append("        index = columns[0];\n");
+            sb.append("        if (index >= 0 && !cursor.isNull(index)) {\n");
+            sb.append("            object.setId(cursor.getLong(index));\n");
+            sb.append("        }\n");
+        }
+        for (int i = sugarRecord ? 1 : 0; i < properties.size(); i++) {
+            writeInflate(sb, properties.get(i), i);
+        }
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n");
+        sb.append("    public void setId(").append(entity).append(" object, long id) {\n");
+        if (sugarRecord) {
+            sb.append("        object.setId(id);\n");
+        } else {
+            sb.append("        object.").append(properties.get(0).field).append(" = id;\n");
+        }
+        sb.append("    }\n");
+        sb.append("}\n");
+
+        Writer writer = processingEnv.getFiler()
+                .createSourceFile(packageName.isEmpty() ? mapper : packageName + "." + mapper, type)
+                .openWriter();
+        try {
+            writer.write(sb.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Binds a column to the statement. NULL values are skipped, since the bindings of the
+     * statement are cleared before each object.
+     */
+    private static void writeBind(StringBuilder sb, Property p, int index) {
+        String value = "object." + p.field;
+        if (p.kind == Kind.BLOB) {
+            sb.append("        statement.bindBlob(").append(index).append(", ").append(value)
+                    .append(" != null ? ").append(value).append(" : new byte[0]);\n");
+            return;
+        }
+
+        String indent = "        ";
+        if (!p.primitive) {
+            sb.append("        if (").append(value).append(" != null) {\n");
+            indent += "    ";
+        }
+        sb.append(indent).append("statement.");
+        switch (p.kind) {
+            case BOOLEAN:
+                sb.append("bindLong(").append(index).append(", ").append(value).append(" ? 1 : 0");
+                break;
+            case FLOAT:
+            case DOUBLE:
+                sb.append("bindDouble(").append(index).append(", ").append(value);
+                break;
+            case STRING:
+                sb.append("bindString(").append(index).append(", ").append(value);
+                break;
+            case DATE:
+                sb.append("bindLong(").append(index).append(", ").append(value).append(".getTime()");
+                break;
+            default:
+                sb.append("bindLong(").append(index).append(", ").append(value);
+                break;
+        }
+        sb.append(");\n");
+        if (!p.primitive) {
+            sb.append("        }\n");
+        }
+    }
+
+    private static void writeInflate(StringBuilder sb, Property p, int column) {
+        String target = "object." + p.field;
+        sb.append("        index = columns[").append(column).append("];\n");
+        sb.append("        if (index >= 0 && !cursor.isNull(index)) {\n");
+        switch (p.kind) {
+            case STRING:
+                sb.append("            String value = cursor.getString(index);\n");
+                sb.append("            ").append(target).append(" = \"null\".equals(value) ? null : value;\n");
+                break;
+            case BOOLEAN:
+                sb.append("            ").append(target).append(" = cursor.getInt(index) != 0;\n");
+                break;
+            case DATE:
+                sb.append("            ").append(target).append(" = new java.util.Date(cursor.getLong(index));\n");
+                break;
+            default:
+                sb.append("            ").append(target).append(" = ").append(getter(p)).append(";\n");
+                break;
+        }
+        sb.append("        }\n");
+    }
+
+    private static String getter(Property p) {
+        switch (p.kind) {
+            case SHORT: return "cursor.getShort(index)";
+            case INT: return "cursor.getInt(index)";
+            case LONG: return "cursor.getLong(index)";
+            case FLOAT: return "cursor.getFloat(index)";
+            case DOUBLE: return "cursor.getDouble(index)";
+            case BLOB: return "cursor.getBlob(index)";
+            default: throw new IllegalArgumentException(p.kind.toString());
+        }
+    }
+
+    private boolean hasNoArgConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isSugarRecord(TypeElement type) {
+        for (TypeElement t = getSuperclass(type); t != null; t = getSuperclass(t)) {
+            if (t.getQualifiedName().contentEquals(SUGAR_RECORD)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The fields of SugarRecord are handled separately, and Object doesn't have any.
+     */
+    private static boolean isFrameworkClass(TypeElement type) {
+        return type.getQualifiedName().contentEquals(SUGAR_RECORD) ||
+                type.getQualifiedName().contentEquals(Object.class.getName());
+    }
+
+    private static TypeElement getSuperclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        return (TypeElement) ((DeclaredType) superclass).asElement();
+    }
+
+    private PackageElement getPackage(Element element) {
+        return processingEnv.getElementUtils().getPackageOf(element);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}